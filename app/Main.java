@@ -1,7 +1,10 @@
 
 import j2i.*;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import soot.*;
 import soot.jimple.*;
@@ -15,43 +18,272 @@ import soot.options.Options;
 public class Main {
 
 	public static void main(String[] margs) {
-		Transform t = new Transform("jtp.grumpy", new RunGrumpy());
-    t.setDeclaredOptions("enabled summaries-file");
-		PackManager.v().getPack("jtp").add(t);
+		RunGrumpy grumpy = new RunGrumpy();
+		StressGrumpy stress = new StressGrumpy();
+		register(grumpy, stress);
 
 		Options.v().set_output_format(Options.output_format_none);
 		soot.Main.main(margs);
+		grumpy.finish();
+		if (stress.bodies() > 0) {
+			G.v().out.print(stress.statistics());
+		}
 	}
 
+  // adds the jtp.grumpy and jtp.stress phases; has to be called before the Soot options are parsed
+  static void register(RunGrumpy grumpy) {
+    register(grumpy, new StressGrumpy());
+  }
+
+  static void register(RunGrumpy grumpy, StressGrumpy stress) {
+		Transform t = new Transform("jtp.grumpy", grumpy);
+    t.setDeclaredOptions("enabled summaries-file workers timeout memory-limit keep-files input cache-dir cache-size portfolio index-file compaction compaction-budget slicing stats");
+		PackManager.v().getPack("jtp").add(t);
+		Transform s = new Transform("jtp.stress", stress);
+    s.setDeclaredOptions("enabled summaries-file compaction compaction-budget slicing threads rounds");
+    s.setDefaultOptions("enabled:false");
+		PackManager.v().getPack("jtp").add(s);
+  }
+
 }
 
 // Run Grumpy+Koat on Methodbody.
 //
+// Problems are solved asynchronously by a pool of koat processes (option workers, default: number of cores), while
+// Soot continues with the translation of the next method bodies. Answers are printed as soon as they are available.
+// KoAT gets 'timeout' seconds (default 30); after a grace period koat is killed and the answer is TIMEOUT.
+// Option portfolio lists ';'-separated koat configurations that are run concurrently (default: --smt-solver z3-internal).
+// With option index-file, methods whose fingerprint did not change since the last run are neither translated nor solved.
+// With option stats, a third line reports the pruned clauses and the solver time of the method.
+//
 // Example Output:
-// [Grumpy] >>> fi.iki.elonen.NanoHTTPD$Method.lookup(Ljava/lang/String;)Lfi/iki/elonen/NanoHTTPD$Method;  WORST_CASE(?, O(n^1))
+// [Grumpy] >>> fi.iki.elonen.NanoHTTPD$Method.lookup(Ljava/lang/String;)Lfi/iki/elonen/NanoHTTPD$Method;
+// [Grumpy] <<< WORST_CASE(?, O(n^1))
+// and with option stats:
+// [Grumpy] --- pruned clauses: 2, solver time: 412 ms
 final class RunGrumpy extends BodyTransformer {
 
+  private KoATExecutor executor;
+  private ResultCache cache;
+  private AnalysisIndex index;
+  // statistics of all translated method bodies; updated by the workers of the executor, guarded by itself
+  private final MethodStats total = new MethodStats();
+
   @Override
-	protected void internalTransform(Body body, String string, Map opts) {
+	protected void internalTransform(Body body, String string, Map<String, String> opts) {
 
-    Grumpy m = new Grumpy((JimpleBody) body, opts);
-    String[] args =
-      { "-timeout", "30"
-      , "--smt-solver", "z3-internal"
-      , "--use-its-parser"
-      , "--use-termcomp-format"
-      , "--no-print-proof" };
+    String signature = Util.getSignature(body.getMethod());
+    MethodStats stats = new MethodStats();
+    boolean printStats = PhaseOptions.getBoolean(opts, "stats");
 
+    submit(body, opts, stats)
+      .thenAccept(answer -> G.v().out.println
+        ( "[Grumpy] >>> " + signature + "\n"
+        + "[Grumpy] <<< " + answer
+        + (printStats ? "\n[Grumpy] --- " + stats : "") ));
+		// G.v().out.println("[Grumpy] \n" + its.pp());
+  }
+
+  CompletableFuture<Answer> submit(Body body, Map<String, String> opts) {
+    return submit(body, opts, new MethodStats());
+  }
+
+  // translates the body and solves it asynchronously; errors of the translation and of the solver are reported and
+  // answered with MAYBE
+  // methods whose fingerprint is unchanged since the last run are answered from the index
+  // the statistics of the translation are added to stats
+  // the references of the body are resolved on the calling thread, which has to be the thread that runs Soot
+  CompletableFuture<Answer> submit(Body body, Map<String, String> opts, MethodStats stats) {
+    KoATExecutor executor = executor(opts);
+    try {
+      References refs = References.of((JimpleBody) body, opts);
+      if (this.index != null) {
+        String signature = Util.getSignature(body.getMethod());
+        String fingerprint = this.index.fingerprint(Grumpy.fingerprint((JimpleBody) body, refs, opts));
+        Optional<Answer> answer = this.index.get(signature, fingerprint);
+        if (answer.isPresent()) {
+          return CompletableFuture.completedFuture(answer.get());
+        }
+        return solve(executor, body, refs, opts, stats)
+          .thenApply(a -> { this.index.put(signature, fingerprint, a); return a; })
+          .exceptionally(e -> { e.printStackTrace(); return Answer.MAYBE; });
+      }
+      return solve(executor, body, refs, opts, stats)
+        .exceptionally(e -> { e.printStackTrace(); return Answer.MAYBE; });
+    } catch (RuntimeException e) {
+      // the translation runs synchronously, before there is a future
+      e.printStackTrace();
+      return CompletableFuture.completedFuture(Answer.MAYBE);
+    }
+  }
+
+  private CompletableFuture<Answer> solve(
+      KoATExecutor executor, Body body, References refs, Map<String, String> opts, MethodStats stats) {
+    Grumpy m = new Grumpy((JimpleBody) body, refs, opts);
     KoAT its = m.jimpleBody2KoAT();
-		String answer = new KoATExecutor(its,args).execute();
+    // the statistics are complete with the answer, cf MethodStats.solverMillis
+    return executor.submit(its).thenApply(answer -> {
+      stats.add(its.stats());
+      synchronized (this.total) {
+        this.total.add(its.stats());
+      }
+      return answer;
+    });
+  }
 
-    // G.v().out.println("[Grumpy] " + Util.getSignature(body.getMethod()) + " >>> " + answer);
+  private synchronized KoATExecutor executor(Map<String, String> opts) {
+    if (this.executor == null) {
+      int timeout = PhaseOptions.getInt(opts, "timeout");
+      timeout = timeout > 0 ? timeout : 30;
+      String[] args =
+        { "-timeout", Integer.toString(timeout)
+        , "--use-its-parser"
+        , "--use-termcomp-format"
+        , "--no-print-proof" };
+      String portfolio = PhaseOptions.getString(opts, "portfolio");
+      List<String[]> configurations = new ArrayList<>();
+      for (String configuration : (portfolio.isEmpty() ? "--smt-solver z3-internal" : portfolio).split(";")) {
+        configurations.add(configuration.trim().split("\\s+"));
+      }
+      int workers = PhaseOptions.getInt(opts, "workers");
+      this.executor = (workers > 0 ? new KoATExecutor(workers, args) : new KoATExecutor(args))
+        .withPortfolio(configurations)
+        .withTimeout(timeout + 5)
+        .withMemoryLimit(PhaseOptions.getInt(opts, "memory-limit"))
+        .keepFiles(PhaseOptions.getBoolean(opts, "keep-files"))
+        .withInput("pipe".equals(PhaseOptions.getString(opts, "input"))
+          ? KoATExecutor.Input.PIPE
+          : KoATExecutor.Input.FILE);
+      String cacheDir = PhaseOptions.getString(opts, "cache-dir");
+      if (!cacheDir.isEmpty()) {
+        int cacheSize = PhaseOptions.getInt(opts, "cache-size");
+        this.cache = new ResultCache(cacheDir, cacheSize > 0 ? cacheSize : 100000);
+        this.executor.withCache(this.cache);
+      }
+      String indexFile = PhaseOptions.getString(opts, "index-file");
+      if (!indexFile.isEmpty()) {
+        this.index = new AnalysisIndex(indexFile, String.join(" ", this.executor.options()));
+      }
+    }
+    return this.executor;
+  }
 
-    G.v().out.println("[Grumpy] >>> " + Util.getSignature(body.getMethod()));
-		// G.v().out.println("[Grumpy] \n" + its.pp());
-    G.v().out.println("[Grumpy] <<< " + answer);
+  // waits for the answers of all submitted method bodies
+  synchronized void finish() {
+    if (this.executor != null) {
+      this.executor.shutdown();
+    }
+    if (this.index != null) {
+      this.index.save();
+    }
+    G.v().out.print(statistics());
+  }
+
+  synchronized String statistics() {
+    StringBuilder b = new StringBuilder();
+    if (this.executor != null) {
+      b.append("[Grumpy] problems: " + this.executor.submissions()
+        + ", solved without solver: " + this.executor.trivial()
+        + ", solver calls saved by equivalent problems: " + this.executor.duplicates() + "\n");
+      b.append(this.executor.portfolioStatistics());
+      synchronized (this.total) {
+        b.append("[Grumpy] translation: " + this.total + "\n");
+      }
+    }
+    if (this.cache != null) {
+      b.append("[Grumpy] cache: " + this.cache.hits() + " hits, " + this.cache.misses() + " misses\n");
+    }
+    if (this.index != null) {
+      b.append("[Grumpy] index: " + this.index.unchanged() + " unchanged methods skipped, "
+        + this.index.changed() + " new or changed methods\n");
+    }
+    return b.toString();
+  }
+
+}
+
+// Stress check of the translation: translates each body on many threads at once and compares the problems byte for
+// byte with a sequential translation. The references of the body are resolved once on the Soot thread and shared by
+// the translations, cf References. Disabled by default; eg
+//   java -cp grumpy.jar Main -cp examples -pp -p jtp.grumpy off -p jtp.stress on,threads:16 Arrays
+// Options threads (default 8) and rounds (translations per thread, default 4), and the translation options of
+// jtp.grumpy (summaries-file, compaction, compaction-budget, slicing). Reports the bodies whose translations differ or
+// fail, and the number of checked bodies at the end.
+final class StressGrumpy extends BodyTransformer {
+
+  private final AtomicInteger bodies = new AtomicInteger();
+  private final AtomicInteger failures = new AtomicInteger();
+
+  @Override
+  protected void internalTransform(Body body, String phase, Map<String, String> opts) {
+    String signature = Util.getSignature(body.getMethod());
+    int threads = PhaseOptions.getInt(opts, "threads");
+    int rounds = PhaseOptions.getInt(opts, "rounds");
+    threads = threads > 0 ? threads : 8;
+    rounds = rounds > 0 ? rounds : 4;
+
+    References refs;
+    String expected;
+    try {
+      refs = References.of((JimpleBody) body, opts);
+      expected = translate(body, refs, opts);
+    } catch (RuntimeException e) {
+      // bodies that can not be translated are not checked
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < threads * rounds; i++) {
+      results.add(pool.submit(() -> {
+        start.await();
+        return translate(body, refs, opts);
+      }));
+    }
+    start.countDown();
+    int differ = 0;
+    try {
+      for (Future<String> result : results) {
+        try {
+          if (!expected.equals(result.get())) {
+            differ++;
+          }
+        } catch (ExecutionException e) {
+          e.getCause().printStackTrace();
+          differ++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      pool.shutdownNow();
+    }
+    this.bodies.incrementAndGet();
+    if (differ > 0) {
+      this.failures.incrementAndGet();
+      G.v().out.println("[Grumpy] stress: " + signature + ": " + differ + " of " + results.size()
+        + " concurrent translations differ");
+    }
+  }
+
+  private static String translate(Body body, References refs, Map<String, String> opts) {
+    StringWriter out = new StringWriter();
+    try {
+      new Grumpy((JimpleBody) body, refs, opts).jimpleBody2KoAT().print(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return out.toString();
+  }
+
+  int bodies() {
+    return this.bodies.get();
   }
 
+  // the number of checked bodies and of bodies with differing translations
+  String statistics() {
+    return "[Grumpy] stress: " + this.bodies.get() + " bodies, " + this.failures.get() + " failed\n";
+  }
 }
 
 // Print Its Only
@@ -71,7 +303,7 @@ final class WithKoAT extends BodyTransformer {
 	@Override
 	protected void internalTransform(Body body, String string, Map map) {
 		Grumpy m = new Grumpy((JimpleBody) body);
-		KoAT its = m.jimpleBody2KoAT();
+		KoAT its = m.jimpleBody2KoAT(false);
 
     String answer;
     String[] args = {"-timeout", "30", "--use-its-parser", "--use-termcomp-format","--no-print-proof"};
@@ -84,7 +316,7 @@ final class WithKoAT extends BodyTransformer {
 		answer = new KoATExecutor(its,args).execute();
 		G.v().out.println(">>> " + answer + "\n");
 		G.v().out.println("*** Its (compact)");
-    its = its.compact();
+    its = m.jimpleBody2KoAT();
 		G.v().out.println(its.pp());
 		G.v().out.println("...");
 		answer = new KoATExecutor(its,args).execute();
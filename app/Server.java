@@ -0,0 +1,224 @@
+import j2i.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+import soot.*;
+import soot.options.Options;
+
+
+// Long-lived analysis server; keeps the Soot Scene, the method summaries and the caches of the solver warm.
+//
+// java -cp grumpy.jar Server <port> <token file> <soot options>
+// java -cp grumpy.jar Server 4711 .grumpy-token -cp examples/ -pp -p jtp.grumpy cache-dir:.grumpy
+//
+// The server listens on the loopback interface. On start-up it writes a random token to the token file, which only the
+// owner can read (and removes it on shutdown); the first line of each connection has to be "auth <token>", otherwise
+// the connection is closed. Then it reads one request per line:
+//   analyze <class> [<method name or subsignature>]  answers "<signature>\t<answer>" per method and then "done <n>"
+//   invalidate <class>                                 drops the class from the Scene; it is reloaded on next use
+//   statistics                                         prints the statistics of the solver and of the symbol table
+//   quit                                               closes the connection
+//   shutdown                                           stops the server
+// Errors are answered with "error <message>". Answers are written as soon as they are available.
+// The symbol table of variables is shared by all requests and never shrinks; it grows with the distinct static fields
+// of the analysed classes, cf Var and the statistics request.
+// Connections are served one after the other. The Scene is not thread-safe, thus it is only used by a single analysis
+// thread: loading and translating bodies and invalidating classes run there, cf onAnalysisThread.
+public class Server {
+
+  private final RunGrumpy grumpy;
+  private final Map<String, String> opts;
+  private final byte[] token;
+  // the only thread that uses the Scene
+  private final ExecutorService analysis = Executors.newSingleThreadExecutor();
+  private boolean running = true;
+
+  Server(RunGrumpy grumpy, Map<String, String> opts, String token) {
+    this.grumpy = grumpy;
+    this.opts = opts;
+    this.token = token.getBytes(StandardCharsets.UTF_8);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: Server <port> <token file> <soot options>");
+      System.exit(1);
+    }
+    int port = Integer.parseInt(args[0]);
+    Path tokenFile = Paths.get(args[1]);
+
+    RunGrumpy grumpy = new RunGrumpy();
+    Main.register(grumpy);
+    Options.v().set_output_format(Options.output_format_none);
+    if (!Options.v().parse(Arrays.copyOfRange(args, 2, args.length))) {
+      throw new RuntimeException("invalid Soot options");
+    }
+
+    Server server = new Server(grumpy, PhaseOptions.v().getPhaseOptions("jtp.grumpy"), writeToken(tokenFile));
+    server.onAnalysisThread(() -> { Scene.v().loadNecessaryClasses(); return null; });
+    try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+      G.v().out.println("[Grumpy] listening on " + socket.getLocalSocketAddress());
+      while (server.running) {
+        try (Socket client = socket.accept()) {
+          server.serve(client);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    } finally {
+      Files.deleteIfExists(tokenFile);
+      server.analysis.shutdown();
+    }
+    grumpy.finish();
+  }
+
+  // writes a fresh random token to a new file that only the owner can read and write
+  private static String writeToken(Path file) throws IOException {
+    byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : bytes) {
+      token.append(String.format("%02x", b));
+    }
+    Files.deleteIfExists(file);
+    try {
+      Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException e) {
+      // no POSIX permissions (eg Windows): restrict the empty file to the owner before the token is written
+      File f = Files.createFile(file).toFile();
+      boolean restricted = f.setReadable(false, false) & f.setWritable(false, false) & f.setExecutable(false, false);
+      restricted &= f.setReadable(true, true) & f.setWritable(true, true);
+      if (!restricted) {
+        System.err.println("[Grumpy] warning: could not restrict the token file to its owner: " + file);
+      }
+    }
+    Files.write(file, token.toString().getBytes(StandardCharsets.UTF_8));
+    return token.toString();
+  }
+
+  // the first line of a connection has to be "auth <token>"; the comparison takes the same time for all wrong tokens
+  private boolean authenticate(BufferedReader in) throws IOException {
+    String line = in.readLine();
+    if (line == null || !line.startsWith("auth ")) {
+      return false;
+    }
+    return MessageDigest.isEqual(this.token, line.substring(5).trim().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void serve(Socket client) throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), true);
+    if (!authenticate(in)) {
+      out.println("error unauthorized");
+      return;
+    }
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] request = line.trim().split("\\s+", 3);
+      try {
+        switch (request[0]) {
+          case "analyze":
+            analyze(out, argument(request, 1), request.length > 2 ? request[2] : null);
+            break;
+          case "invalidate":
+            String className = argument(request, 1);
+            onAnalysisThread(() -> { invalidate(className); return null; });
+            out.println("done");
+            break;
+          case "statistics":
+            out.print(this.grumpy.statistics());
+            out.println("[Grumpy] variables: " + Grumpy.symbols() + " symbols");
+            out.println("done");
+            break;
+          case "quit":
+            return;
+          case "shutdown":
+            this.running = false;
+            return;
+          case "":
+            break;
+          default:
+            out.println("error unknown request: " + request[0]);
+        }
+      } catch (RuntimeException e) {
+        out.println("error " + e.getMessage());
+      }
+    }
+  }
+
+  private static String argument(String[] request, int i) {
+    if (request.length <= i) {
+      throw new IllegalArgumentException("missing argument of " + request[0]);
+    }
+    return request[i];
+  }
+
+  // runs the task on the analysis thread and waits for it; runtime exceptions of the task are rethrown
+  private <T> T onAnalysisThread(Callable<T> task) {
+    try {
+      return this.analysis.submit(task).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  // solves all concrete methods of the class (or the given method) and waits for their answers; the bodies are loaded
+  // and translated on the analysis thread, the answers are written by the solver threads
+  private void analyze(PrintWriter out, String className, String method) {
+    List<CompletableFuture<Void>> answers = onAnalysisThread(() -> submit(out, className, method));
+    CompletableFuture.allOf(answers.toArray(new CompletableFuture<?>[0])).join();
+    out.println("done " + answers.size());
+  }
+
+  private List<CompletableFuture<Void>> submit(PrintWriter out, String className, String method) {
+    SootClass c = Scene.v().forceResolve(className, SootClass.BODIES);
+    if (c.isPhantom()) {
+      throw new IllegalArgumentException("class not found: " + className);
+    }
+    c.setApplicationClass();
+    List<CompletableFuture<Void>> answers = new ArrayList<>();
+    for (SootMethod m : new ArrayList<>(c.getMethods())) {
+      if (!m.isConcrete() || method != null && !method.equals(m.getName()) && !method.equals(m.getSubSignature())) {
+        continue;
+      }
+      String signature = Util.getSignature(m);
+      answers.add(this.grumpy.submit(m.retrieveActiveBody(), this.opts)
+        .thenAccept(answer -> {
+          synchronized (out) {
+            out.println(signature + "\t" + answer);
+          }
+        }));
+    }
+    return answers;
+  }
+
+  // removes the class and its bodies from the Scene, such that the next request reads the class file again; runs on the
+  // analysis thread
+  private void invalidate(String className) {
+    if (Scene.v().containsClass(className)) {
+      SootClass c = Scene.v().getSootClass(className);
+      for (SootMethod m : c.getMethods()) {
+        m.releaseActiveBody();
+      }
+      Scene.v().removeClass(c);
+      Scene.v().releaseActiveHierarchy();
+      Scene.v().releaseFastHierarchy();
+    }
+    SourceLocator.v().invalidateClassPath();
+  }
+
+}
@@ -12,25 +12,25 @@ eval returns [AExpr value]
 
 add returns [AExpr value]
     :    e1=mul          {$value = $e1.value;}
-         ( '+' e2=mul    {$value = new Add($e1.value, $e2.value);}
-         | '-' e2=mul    {$value = new Sub($e1.value, $e2.value);}
+         ( '+' e2=mul    {$value = Add.of($value, $e2.value);}
+         | '-' e2=mul    {$value = Sub.of($value, $e2.value);}
          )* 
     ;
 
 mul returns [AExpr value]
     :    e1=uexpr        {$value = $e1.value;}
-         ( '*' e2=uexpr  {$value = new Mul($e1.value, $e2.value);}
+         ( '*' e2=uexpr  {$value = Mul.of($value, $e2.value);}
          )* 
     ;
 
 uexpr returns [AExpr value]
-    :    '-' a=atom      {$value = new Neg($a.value);}
+    :    '-' a=atom      {$value = Neg.of($a.value);}
     |    a=atom          {$value = $a.value;}
 		;
 
 atom returns [AExpr value]
-    :    n=Number        {$value = new Val(Long.parseLong($n.text));}
-    |    i=Identifier    {$value = new Var($i.text);}
+    :    n=Number        {$value = Val.of(Long.parseLong($n.text));}
+    |    i=Identifier    {$value = Var.of($i.text);}
     |    '(' e=add ')'   {$value = $e.value;}
     ;
 
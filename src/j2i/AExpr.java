@@ -1,37 +1,60 @@
 package j2i;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Predicate;
 import org.antlr.v4.runtime.*;
 
 
+// Arithmetic expressions are immutable and hash-consed: structurally equal expressions are represented by the same
+// instance (cf Interner; variables are kept in a symbol table, cf Var). Expressions are created with the factories
+// (eg Add.of, Var.of), which return the canonical instance. Thus subexpressions are shared, and equals compares only
+// the node itself as its children are canonical.
+// Hash codes are structural (and not based on identities), so that the iteration order of hash sets is deterministic.
 abstract class AExpr implements PrettyPrint {
 
-  static Val zero = new Val(0);
-  static Val one = new Val(1);
+  static final Interner<AExpr> nodes = new Interner<>();
+
+  static final Val zero = Val.of(0);
+  static final Val one = Val.of(1);
+
+  private final int hash;
+  // normal form and variables of this expression; computed on demand, cf normalize and variables
+  private volatile AExpr normal;
+  private volatile int[] vars;
+
+  AExpr(int hash) {
+    this.hash = hash;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <E extends AExpr> E intern(E e) {
+    return (E) nodes.intern(e);
+  }
 
   static AExpr add(AExpr lhs, AExpr rhs) {
-    return new Add(lhs, rhs);
+    return Add.of(lhs, rhs).normalize();
   }
 
   static AExpr mul(AExpr lhs, AExpr rhs) {
-    return new Mul(lhs, rhs);
+    return Mul.of(lhs, rhs).normalize();
   }
 
   static AExpr sub(AExpr lhs, AExpr rhs) {
-    return new Sub(lhs, rhs);
+    return Sub.of(lhs, rhs).normalize();
   }
 
   static AExpr neg(AExpr e) {
-    return new Neg(e);
+    return Neg.of(e).normalize();
   }
 
   static AExpr val(Long v) {
-    return new Val(v);
+    return Val.of(v);
   }
 
   static AExpr var(String v) {
-    return new Var(v);
+    return Var.of(v);
   }
 
   static AExpr fromString(String expr) {
@@ -44,51 +67,121 @@ abstract class AExpr implements PrettyPrint {
     return e;
   }
 
-  abstract boolean hasVar(Var var);
+  // The ids of the variables of this expression in ascending order (cf Var.id); computed once per node. The array is
+  // shared and must not be modified.
+  int[] variables() {
+    int[] vars = this.vars;
+    if (vars == null) {
+      vars = this.computeVariables();
+      this.vars = vars;
+    }
+    return vars;
+  }
+
+  abstract int[] computeVariables();
 
-  abstract void addVariables(Set<Var> vars, Predicate<Var> p);
+  boolean hasVar(Var var) {
+    return Var.contains(this.variables(), var.id);
+  }
+
+  void addVariables(Set<Var> vars, Predicate<Var> p) {
+    Var.addAll(this.variables(), vars, p);
+  }
 
+  boolean isConstant() {
+    return this.variables().length == 0;
+  }
+
+  // returns this expression if no variable is substituted; otherwise only the nodes above substituted variables are
+  // rebuilt
   abstract AExpr substitute(Map<Var, AExpr> smap);
+
+  // Returns the expression in polynomial normal form (cf Poly), eg (x - (-(y))) + (1 + 1) becomes (x + y) + 2. The
+  // normal form is computed once per node from the normal forms of its children. If a coefficient overflows, the
+  // expression is kept as is.
+  AExpr normalize() {
+    AExpr normal = this.normal;
+    if (normal == null) {
+      try {
+        normal = this.poly().toAExpr();
+      } catch (ArithmeticException e) {
+        normal = this;
+      }
+      normal.normal = normal;
+      this.normal = normal;
+    }
+    return normal;
+  }
+
+  // the polynomial of the normalised expression
+  abstract Poly poly();
+
+  @Override
+  public final int hashCode() {
+    return this.hash;
+  }
 }
 
 abstract class BinExpr extends AExpr {
 
-  AExpr lhs;
-  AExpr rhs;
+  final AExpr lhs;
+  final AExpr rhs;
 
-  @Override
-  boolean hasVar(Var var) {
-    return this.lhs.hasVar(var) || this.rhs.hasVar(var);
+  BinExpr(int op, AExpr lhs, AExpr rhs) {
+    super(31 * (31 * op + lhs.hashCode()) + rhs.hashCode());
+    this.lhs = lhs;
+    this.rhs = rhs;
   }
 
   @Override
-  void addVariables(Set<Var> vars, Predicate<Var> p) {
-    lhs.addVariables(vars, p);
-    rhs.addVariables(vars, p);
+  int[] computeVariables() {
+    return Var.union(this.lhs.variables(), this.rhs.variables());
   }
 
   @Override
   AExpr substitute(Map<Var, AExpr> smap) {
-    this.lhs = this.lhs.substitute(smap);
-    this.rhs = this.rhs.substitute(smap);
-    return this;
+    AExpr lhs = this.lhs.substitute(smap);
+    AExpr rhs = this.rhs.substitute(smap);
+    return lhs == this.lhs && rhs == this.rhs ? this : make(lhs, rhs);
+  }
+
+  abstract BinExpr make(AExpr lhs, AExpr rhs);
+
+  @Override
+  Poly poly() {
+    return Poly.apply(this, Poly.of(this.lhs.normalize()), Poly.of(this.rhs.normalize()));
   }
 
   protected String ppWith(String op) {
     return "(" + this.lhs.pp() + " " + op + " " + this.rhs.pp() + ")";
   }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    BinExpr object = (BinExpr) o;
+    return this.lhs == object.lhs && this.rhs == object.rhs;
+  }
 }
 
 final class Add extends BinExpr {
 
-  Add(AExpr lhs, AExpr rhs) {
-    this.lhs = lhs;
-    this.rhs = rhs;
+  private Add(AExpr lhs, AExpr rhs) {
+    super('+', lhs, rhs);
   }
 
-  Add(String lhs, String rhs) {
-    this.lhs = new Var(lhs);
-    this.rhs = new Var(rhs);
+  static Add of(AExpr lhs, AExpr rhs) {
+    return intern(new Add(lhs, rhs));
+  }
+
+  @Override
+  BinExpr make(AExpr lhs, AExpr rhs) {
+    return of(lhs, rhs);
   }
 
   @Override
@@ -104,14 +197,17 @@ final class Add extends BinExpr {
 
 final class Mul extends BinExpr {
 
-  Mul(AExpr lhs, AExpr rhs) {
-    this.lhs = lhs;
-    this.rhs = rhs;
+  private Mul(AExpr lhs, AExpr rhs) {
+    super('*', lhs, rhs);
   }
 
-  Mul(String lhs, String rhs) {
-    this.lhs = new Var(lhs);
-    this.rhs = new Var(rhs);
+  static Mul of(AExpr lhs, AExpr rhs) {
+    return intern(new Mul(lhs, rhs));
+  }
+
+  @Override
+  BinExpr make(AExpr lhs, AExpr rhs) {
+    return of(lhs, rhs);
   }
 
   @Override
@@ -127,14 +223,17 @@ final class Mul extends BinExpr {
 
 final class Sub extends BinExpr {
 
-  Sub(AExpr lhs, AExpr rhs) {
-    this.lhs = lhs;
-    this.rhs = rhs;
+  private Sub(AExpr lhs, AExpr rhs) {
+    super('-', lhs, rhs);
   }
 
-  Sub(String lhs, String rhs) {
-    this.lhs = new Var(lhs);
-    this.rhs = new Var(rhs);
+  static Sub of(AExpr lhs, AExpr rhs) {
+    return intern(new Sub(lhs, rhs));
+  }
+
+  @Override
+  BinExpr make(AExpr lhs, AExpr rhs) {
+    return of(lhs, rhs);
   }
 
   @Override
@@ -150,27 +249,31 @@ final class Sub extends BinExpr {
 
 final class Neg extends AExpr {
 
-  AExpr neg;
+  final AExpr neg;
 
-  Neg(AExpr neg) {
+  private Neg(AExpr neg) {
+    super(31 * '~' + neg.hashCode());
     this.neg = neg;
   }
 
-  @Override
-  boolean hasVar(Var var) {
-    return this.neg.hasVar(var);
+  static Neg of(AExpr neg) {
+    return intern(new Neg(neg));
   }
 
   @Override
-  void addVariables(Set<Var> vars, Predicate<Var> p) {
-    this.neg.addVariables(vars, p);
+  int[] computeVariables() {
+    return this.neg.variables();
   }
 
-
   @Override
   AExpr substitute(Map<Var, AExpr> smap) {
-    this.neg = this.neg.substitute(smap);
-    return this;
+    AExpr neg = this.neg.substitute(smap);
+    return neg == this.neg ? this : of(neg);
+  }
+
+  @Override
+  Poly poly() {
+    return Poly.of(this.neg.normalize()).negate();
   }
 
   @Override
@@ -182,38 +285,54 @@ final class Neg extends AExpr {
   public String toString() {
     return "Neg{" + "neg=" + neg + '}';
   }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || o instanceof Neg && this.neg == ((Neg) o).neg;
+  }
 }
 
 final class Val extends AExpr {
 
-  long val;
+  final long val;
 
-  Val(long val) {
+  private Val(long val) {
+    super(Long.hashCode(val));
     this.val = val;
   }
 
+  static Val of(long val) {
+    return intern(new Val(val));
+  }
+
   static Val one() {
-    return new Val(1);
+    return one;
   }
 
   static Val zero() {
-    return new Val(0);
+    return zero;
   }
 
   @Override
-  boolean hasVar(Var var) {
-    return false;
+  int[] computeVariables() {
+    return Var.none;
   }
 
   @Override
-  void addVariables(Set<Var> vars, Predicate<Var> p) {
+  AExpr substitute(Map<Var, AExpr> smap) {
+    return this;
   }
 
   @Override
-  AExpr substitute(Map<Var, AExpr> smap) {
+  AExpr normalize() {
     return this;
   }
 
+  @Override
+  Poly poly() {
+    return Poly.constant(this.val);
+  }
+
   @Override
   public String pp() {
     if (this.val >= 0) {
@@ -227,28 +346,144 @@ final class Val extends AExpr {
   public String toString() {
     return "Val{" + "val=" + val + '}';
   }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || o instanceof Val && this.val == ((Val) o).val;
+  }
 }
 
+// Variables are numbered: the pre- and the post-variable of the k-th symbol have the ids 2k and 2k+1. Ids are assigned
+// process-wide on first use, as expressions and constraints are hash-consed and shared between methods. Ids depend on
+// the order of translation; they are not used for ordering (eg hash codes remain structural).
+// As ids grow with the symbols of a run, sets of variables are sorted arrays of ids, whose size depends only on the
+// number of variables. Analyses that keep a value per variable number the variables of a method densely, cf VarIndex.
+// Symbols are never released: constraints refer to variables by id (cf LinearConstraint), thus an id can not be reused
+// while an interned constraint may still mention it. The table grows with the distinct symbols rather than with the
+// number of translated bodies, as local and fresh variables are named per method (r0, $i1, fresh_0, ...); in a
+// long-lived process it grows with the static fields referenced by the analysed classes (cf symbols).
 final class Var extends AExpr {
 
-  String symb;
-  boolean post = false;
+  static final int[] none = new int[0];
 
-  Var(String symb) {
-    this.symb = symb;
-  }
+  private static final ConcurrentMap<String, Var[]> symbols = new ConcurrentHashMap<>();
+  private static volatile Var[] ids = new Var[1024];
+  private static int size = 0;
 
-  Var(String symb, boolean post) {
+  final String symb;
+  final boolean post;
+  final int id;
+
+  private Var(String symb, boolean post, int id) {
+    super(31 * (31 * 17 + symb.hashCode()) + (post ? 0 : 1));
     this.symb = symb;
     this.post = post;
+    this.id = id;
+  }
+
+  static Var of(String symb) {
+    return of(symb, false);
+  }
+
+  static Var of(String symb, boolean post) {
+    Var[] vars = symbols.get(symb);
+    if (vars == null) {
+      vars = symbols.computeIfAbsent(symb, Var::register);
+    }
+    return vars[post ? 1 : 0];
+  }
+
+  private static synchronized Var[] register(String symb) {
+    Var[] table = ids.length >= size + 2 ? ids : Arrays.copyOf(ids, 2 * ids.length);
+    Var[] vars = { new Var(symb, false, size), new Var(symb, true, size + 1) };
+    table[size] = vars[0];
+    table[size + 1] = vars[1];
+    size += 2;
+    ids = table;
+    return vars;
+  }
+
+  static Var byId(int id) {
+    return ids[id];
+  }
+
+  // the number of registered symbols
+  static int symbols() {
+    return symbols.size();
+  }
+
+  static boolean isPostId(int id) {
+    return (id & 1) == 1;
   }
 
   static Var newPostVar(Var var) {
-    return new Var(var.symb, true);
+    return byId(var.id | 1);
   }
 
   static Var newPreVar(Var var) {
-    return new Var(var.symb);
+    return byId(var.id & ~1);
+  }
+
+  // the union of two sorted sets of ids; returns one of the arguments if it contains the other
+  static int[] union(int[] xs, int[] ys) {
+    if (xs.length == 0) {
+      return ys;
+    }
+    if (ys.length == 0 || xs == ys) {
+      return xs;
+    }
+    int[] zs = new int[xs.length + ys.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < xs.length && j < ys.length) {
+      if (xs[i] < ys[j]) {
+        zs[k++] = xs[i++];
+      } else if (xs[i] > ys[j]) {
+        zs[k++] = ys[j++];
+      } else {
+        zs[k++] = xs[i++];
+        j++;
+      }
+    }
+    while (i < xs.length) {
+      zs[k++] = xs[i++];
+    }
+    while (j < ys.length) {
+      zs[k++] = ys[j++];
+    }
+    if (k == xs.length) {
+      return xs;
+    }
+    if (k == ys.length) {
+      return ys;
+    }
+    return Arrays.copyOf(zs, k);
+  }
+
+  // sorts ids and removes duplicates, in place; returns the size of the set
+  static int toSet(int[] ids, int size) {
+    Arrays.sort(ids, 0, size);
+    int k = 0;
+    for (int i = 0; i < size; i++) {
+      if (k == 0 || ids[k - 1] != ids[i]) {
+        ids[k++] = ids[i];
+      }
+    }
+    return k;
+  }
+
+  static boolean contains(int[] ids, int id) {
+    return Arrays.binarySearch(ids, id) >= 0;
+  }
+
+  static void addAll(int[] ids, Set<Var> vars, Predicate<Var> p) {
+    for (int id : ids) {
+      Var v = byId(id);
+      if (p.test(v)) {
+        vars.add(v);
+      }
+    }
   }
 
   boolean isPostVar() {
@@ -262,15 +497,23 @@ final class Var extends AExpr {
   }
 
   @Override
-  boolean hasVar(Var var) {
-    return this.equals(var);
+  AExpr normalize() {
+    return this;
   }
 
   @Override
-  void addVariables(Set<Var> vars, Predicate<Var> p) {
-    if (p.test(this)) {
-      vars.add(this);
-    }
+  Poly poly() {
+    return Poly.var(this);
+  }
+
+  @Override
+  int[] computeVariables() {
+    return new int[]{this.id};
+  }
+
+  @Override
+  boolean hasVar(Var var) {
+    return this == var;
   }
 
   @Override
@@ -285,28 +528,6 @@ final class Var extends AExpr {
 
   @Override
   public boolean equals(Object o) {
-    if (this == o) {
-      return true;
-    }
-    if (o == null || getClass() != o.getClass()) {
-      return false;
-    }
-
-    Var object = (Var) o;
-
-    if (symb != null ? !symb.equals(object.symb) : object.symb != null) {
-      return false;
-    }
-    return !(post != object.post);
-  }
-
-  @Override
-  public int hashCode() {
-    int result = 17;
-    result = 31 * result + (symb != null ? symb.hashCode() : 0);
-    result = 31 * result + (post ? 0 : 1);
-    return result;
+    return this == o;
   }
-
 }
-
@@ -0,0 +1,118 @@
+package j2i;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// An on-disk index of the answers of the previous run, keyed by method signature.
+//
+// Each entry records the fingerprint of the method (cf Grumpy.fingerprint) together with the options of the solver and
+// the answer. A method whose fingerprint is unchanged is neither translated nor solved again. The index is a text file
+// with one line "<signature>\t<fingerprint>\t<answer>" per method; it is read on construction and written by save.
+// Entries of methods that are not analysed in a run are kept. Like in the ResultCache only definite answers are stored:
+// MAYBE or TIMEOUT (eg koat was not found, crashed or ran out of time) removes the entry, thus the method is solved
+// again in the next run; such entries of older index files are ignored.
+public final class AnalysisIndex {
+
+  private final Path file;
+  private final String salt;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final AtomicLong unchanged = new AtomicLong();
+  private final AtomicLong changed = new AtomicLong();
+
+  // salt is added to all fingerprints; eg the options of the solver
+  public AnalysisIndex(String file, String salt) {
+    this.file = Paths.get(file).toAbsolutePath();
+    this.salt = salt;
+    if (Files.exists(this.file)) {
+      try (BufferedReader in = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          String[] fields = line.split("\t");
+          if (fields.length == 3 && Answer.of(fields[2]).isDefinite()) {
+            this.entries.put(fields[0], new Entry(fields[1], Answer.of(fields[2])));
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("could not read index: " + file, e);
+      }
+    }
+  }
+
+  public String fingerprint(String fingerprint) {
+    DigestWriter out = new DigestWriter();
+    out.write(fingerprint);
+    out.write('\0');
+    out.write(this.salt);
+    return out.hex();
+  }
+
+  // the answer of the previous run if the fingerprint is unchanged
+  public Optional<Answer> get(String signature, String fingerprint) {
+    Entry entry = this.entries.get(signature);
+    if (entry != null && entry.fingerprint.equals(fingerprint)) {
+      this.unchanged.incrementAndGet();
+      return Optional.of(entry.answer);
+    }
+    this.changed.incrementAndGet();
+    return Optional.empty();
+  }
+
+  public void put(String signature, String fingerprint, Answer answer) {
+    if (!answer.isDefinite()) {
+      this.entries.remove(signature);
+    } else {
+      this.entries.put(signature, new Entry(fingerprint, answer));
+    }
+  }
+
+  public long unchanged() {
+    return this.unchanged.get();
+  }
+
+  public long changed() {
+    return this.changed.get();
+  }
+
+  // writes the index to a temporary file that is then moved in place
+  public void save() {
+    try {
+      Path dir = this.file.getParent();
+      Files.createDirectories(dir);
+      Path tmp = Files.createTempFile(dir, this.file.getFileName().toString(), ".tmp");
+      try {
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+          for (Map.Entry<String, Entry> e : new TreeMap<>(this.entries).entrySet()) {
+            out.write(e.getKey() + "\t" + e.getValue().fingerprint + "\t" + e.getValue().answer.pp());
+            out.newLine();
+          }
+        }
+        Files.move(tmp, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static final class Entry {
+    final String fingerprint;
+    final Answer answer;
+
+    Entry(String fingerprint, Answer answer) {
+      this.fingerprint = fingerprint;
+      this.answer = answer;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AnalysisIndex{" + "unchanged=" + unchanged + ", changed=" + changed + '}';
+  }
+}
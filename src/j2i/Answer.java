@@ -0,0 +1,41 @@
+package j2i;
+
+// The answer of the solver, ie the first line of its output, eg WORST_CASE(?, O(n^1)) or MAYBE.
+public final class Answer implements PrettyPrint {
+
+  public static final Answer MAYBE = new Answer("MAYBE");
+  public static final Answer TIMEOUT = new Answer("TIMEOUT");
+  public static final Answer CONSTANT = new Answer("WORST_CASE(?, O(1))");
+
+  private final String text;
+
+  private Answer(String text) {
+    this.text = text;
+  }
+
+  static Answer of(String line) {
+    return line == null || line.trim().isEmpty() ? MAYBE : new Answer(line.trim());
+  }
+
+  public boolean isMaybe() {
+    return this.text.equals(MAYBE.text);
+  }
+
+  public boolean isTimeout() {
+    return this == TIMEOUT;
+  }
+
+  public boolean isDefinite() {
+    return !this.isMaybe() && !this.isTimeout();
+  }
+
+  @Override
+  public String pp() {
+    return this.text;
+  }
+
+  @Override
+  public String toString() {
+    return this.text;
+  }
+}
@@ -5,169 +5,200 @@ import java.util.*;
 import java.util.function.Predicate;
 
 
+// A constraint lhs op rhs. Constraints are immutable and hash-consed like arithmetic expressions, cf AExpr. Linear
+// constraints, ie almost all guards, are represented by LinearConstraint over primitive arrays; the remaining ones by
+// TermConstraint.
+//
+// Constraints are kept in canonical integer form  e <= 0  or  e = 0, where e is in polynomial normal form (cf
+// AExpr.normalize): strict inequalities are tightened by one, eg x > y becomes (y - x) + 1 <= 0, assignments are
+// equations, and equations are oriented such that the leading coefficient is positive. Thus equivalent constraints
+// are usually the same instance, eg x > 0 and x >= 1.
 abstract class Constraint implements PrettyPrint {
 
-  AExpr lhs;
-  AExpr rhs;
+  static final Interner<Constraint> constraints = new Interner<>();
 
-  Constraint(AExpr lhs, AExpr rhs) {
-    this.lhs = lhs;
-    this.rhs = rhs;
+  static final byte GE = 0;
+  static final byte GT = 1;
+  static final byte LE = 2;
+  static final byte LT = 3;
+  static final byte EQ = 4;
+  // assignment ~ as oriented equation
+  static final byte AS = 5;
+
+  private static final String[] ops = {">=", ">", "<=", "<", "=", "="};
+
+  final byte op;
+  private volatile int[] vars;
+
+  Constraint(byte op) {
+    this.op = op;
   }
 
   static Constraint ge(AExpr lhs, AExpr rhs) {
-    return new GeConstraint(lhs, rhs);
+    return make(GE, lhs, rhs);
   }
 
   static Constraint gt(AExpr lhs, AExpr rhs) {
-    return new GtConstraint(lhs, rhs);
+    return make(GT, lhs, rhs);
   }
 
   static Constraint le(AExpr lhs, AExpr rhs) {
-    return new LeConstraint(lhs, rhs);
+    return make(LE, lhs, rhs);
   }
 
   static Constraint lt(AExpr lhs, AExpr rhs) {
-    return new LtConstraint(lhs, rhs);
+    return make(LT, lhs, rhs);
   }
 
   static Constraint eq(AExpr lhs, AExpr rhs) {
-    return new EqConstraint(lhs, rhs);
+    return make(EQ, lhs, rhs);
   }
 
   static Constraint as(AExpr lhs, AExpr rhs) {
-    return new AsConstraint(lhs, rhs);
+    return make(AS, lhs, rhs);
   }
 
   static Constraint positive(AExpr e) {
-    return new GtConstraint(e, Val.zero);
+    return gt(e, Val.zero);
   }
 
   static Constraint nonnegative(AExpr e) {
-    return new GeConstraint(e, Val.zero);
+    return ge(e, Val.zero);
   }
 
   static Constraint negative(AExpr e) {
-    return new LtConstraint(e, Val.zero);
-  }
+    return lt(e, Val.zero);
+  }
+
+  static Constraint make(byte op, AExpr lhs, AExpr rhs) {
+    AExpr e;
+    switch (op) {
+      case GE:
+        e = Sub.of(rhs, lhs);
+        break;
+      case GT:
+        e = Add.of(Sub.of(rhs, lhs), AExpr.one);
+        break;
+      case LT:
+        e = Add.of(Sub.of(lhs, rhs), AExpr.one);
+        break;
+      default:
+        e = Sub.of(lhs, rhs);
+    }
+    byte canonical = op == EQ || op == AS ? EQ : LE;
+    e = e.normalize();
+    Constraint c = LinearConstraint.of(canonical, e);
+    if (c == null) {
+      if (canonical == EQ && isNegative(e)) {
+        e = Neg.of(e).normalize();
+      }
+      c = new TermConstraint(canonical, e, AExpr.zero);
+    }
+    return constraints.intern(c);
+  }
+
+  // the leading coefficient of the normal form e is negative
+  private static boolean isNegative(AExpr e) {
+    try {
+      Iterator<Map.Entry<Monomial, Long>> terms = Poly.of(e).terms().iterator();
+      return terms.hasNext() && terms.next().getValue() < 0;
+    } catch (ArithmeticException ex) {
+      return false;
+    }
+  }
+
+  static String opString(byte op) {
+    return ops[op];
+  }
+
+  abstract AExpr lhs();
+
+  abstract AExpr rhs();
+
+  // the ids of the variables of this constraint in ascending order; the array is shared and must not be modified
+  int[] variables() {
+    int[] vars = this.vars;
+    if (vars == null) {
+      vars = this.computeVariables();
+      this.vars = vars;
+    }
+    return vars;
+  }
+
+  abstract int[] computeVariables();
 
   boolean hasVar(Var var) {
-    return this.lhs.hasVar(var) || this.rhs.hasVar(var);
+    return Var.contains(this.variables(), var.id);
   }
 
   void addVariables(Set<Var> vars, Predicate<Var> p) {
-    lhs.addVariables(vars, p);
-    rhs.addVariables(vars, p);
+    Var.addAll(this.variables(), vars, p);
   }
 
-  void substitute(Map<Var, AExpr> smap) {
-    this.lhs = this.lhs.substitute(smap);
-    this.rhs = this.rhs.substitute(smap);
-  }
-
-  protected String ppWithOp(String op) {
-    return lhs.pp() + " " + op + " " + rhs.pp();
-  }
+  // returns this constraint if no variable is substituted
+  abstract Constraint substitute(Map<Var, AExpr> smap);
 }
 
-final class GeConstraint extends Constraint {
+// A constraint with non-linear terms.
+final class TermConstraint extends Constraint {
 
-  GeConstraint(AExpr lhs, AExpr rhs) {
-    super(lhs, rhs);
-  }
+  private final AExpr lhs;
+  private final AExpr rhs;
+  private final int hash;
 
-  @Override
-  public String pp() {
-    return ppWithOp(">=");
+  TermConstraint(byte op, AExpr lhs, AExpr rhs) {
+    super(op);
+    this.lhs = lhs;
+    this.rhs = rhs;
+    this.hash = 31 * (31 * op + lhs.hashCode()) + rhs.hashCode();
   }
 
   @Override
-  public String toString() {
-    return "GeConstraint{" + "lhs=" + lhs + ", rhs=" + rhs + '}';
-  }
-}
-
-final class GtConstraint extends Constraint {
-
-  GtConstraint(AExpr lhs, AExpr rhs) {
-    super(lhs, rhs);
+  AExpr lhs() {
+    return this.lhs;
   }
 
   @Override
-  public String pp() {
-    return ppWithOp(">");
+  AExpr rhs() {
+    return this.rhs;
   }
 
   @Override
-  public String toString() {
-    return "GtConstraint{" + "lhs=" + lhs + ", rhs=" + rhs + '}';
-  }
-}
-
-final class LeConstraint extends Constraint {
-
-  LeConstraint(AExpr lhs, AExpr rhs) {
-    super(lhs, rhs);
+  int[] computeVariables() {
+    return Var.union(this.lhs.variables(), this.rhs.variables());
   }
 
   @Override
-  public String pp() {
-    return ppWithOp("<=");
+  Constraint substitute(Map<Var, AExpr> smap) {
+    AExpr lhs = this.lhs.substitute(smap);
+    AExpr rhs = this.rhs.substitute(smap);
+    return lhs == this.lhs && rhs == this.rhs ? this : make(this.op, lhs, rhs);
   }
 
   @Override
-  public String toString() {
-    return "LeConstraint{" + "lhs=" + lhs + ", rhs=" + rhs + '}';
-  }
-}
-
-final class LtConstraint extends Constraint {
-
-  LtConstraint(AExpr lhs, AExpr rhs) {
-    super(lhs, rhs);
-  }
-
   public String pp() {
-    return ppWithOp("<");
+    return lhs.pp() + " " + opString(op) + " " + rhs.pp();
   }
 
   @Override
   public String toString() {
-    return "LtConstraint{" + "lhs=" + lhs + ", rhs=" + rhs + '}';
-  }
-}
-
-final class EqConstraint extends Constraint {
-
-  EqConstraint(AExpr lhs, AExpr rhs) {
-    super(lhs, rhs);
+    return "TermConstraint{" + "op='" + opString(op) + "', lhs=" + lhs + ", rhs=" + rhs + '}';
   }
 
   @Override
-  public String pp() {
-    return ppWithOp("=");
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    TermConstraint object = (TermConstraint) o;
+    return this.op == object.op && this.lhs == object.lhs && this.rhs == object.rhs;
   }
 
   @Override
-  public String toString() {
-    return "EqConstraint{" + "lhs=" + lhs + ", rhs=" + rhs + '}';
-  }
-}
-
-// assignment ~ as oriented equation
-final class AsConstraint extends Constraint {
-
-  AsConstraint(AExpr lhs, AExpr rhs) {
-    super(lhs, rhs);
-  }
-
-  @Override
-  public String pp() {
-    return ppWithOp("=");
-  }
-
-  @Override
-  public String toString() {
-    return "AsConstraint{" + "lhs=" + lhs + ", rhs=" + rhs + '}';
+  public int hashCode() {
+    return this.hash;
   }
 }
@@ -19,18 +19,30 @@ final class Domain implements Iterable<Var> {
     this.elements.add(v);
   }
 
-  public void addFields(JimpleBody body) {
-    for (SootField field : body.getMethod().getDeclaringClass().getFields()) {
-      if (Grumpy.isPrimitive(field)) {
-        this.elements.add(Grumpy.var(field));
-      }
-    }
+  // Adds the primitive static fields that the body reads or writes, or that the summaries of its calls mention.
+  public void addFields(References refs) {
+    this.elements.addAll(refs.fields());
+  }
+
+  public void remove(Var v) {
+    this.elements.remove(v);
+  }
+
+  Domain copy() {
+    Domain d = new Domain();
+    d.elements.addAll(this.elements);
+    return d;
   }
 
   public boolean hasElem(Var var) {
     return this.elements.contains(var);
   }
 
+  // a dense numbering of the current elements, cf VarIndex
+  VarIndex index() {
+    return new VarIndex(this.elements);
+  }
+
   @Override
   public Iterator<Var> iterator() {
     return this.elements.iterator();
@@ -41,3 +53,50 @@ final class Domain implements Iterable<Var> {
     return "Domain{" + "elements = " + elements + "}";
   }
 }
+
+// A dense numbering 0..size-1 of the variables of a domain, in the order of the domain. Ids are process-wide and grow
+// with the symbols of a run (cf Var), thus analyses that keep a value or a bit per variable of a method use positions.
+final class VarIndex {
+
+  // the ids by position, and the ids in ascending order with their positions
+  private final int[] ids;
+  private final int[] sorted;
+  private final int[] positions;
+
+  VarIndex(Collection<Var> vars) {
+    int n = vars.size();
+    this.ids = new int[n];
+    long[] keyed = new long[n];
+    int k = 0;
+    for (Var v : vars) {
+      this.ids[k] = v.id;
+      keyed[k] = (long) v.id << 32 | k;
+      k++;
+    }
+    Arrays.sort(keyed);
+    this.sorted = new int[n];
+    this.positions = new int[n];
+    for (int i = 0; i < n; i++) {
+      this.sorted[i] = (int) (keyed[i] >>> 32);
+      this.positions[i] = (int) keyed[i];
+    }
+  }
+
+  int size() {
+    return this.ids.length;
+  }
+
+  int id(int k) {
+    return this.ids[k];
+  }
+
+  Var var(int k) {
+    return Var.byId(this.ids[k]);
+  }
+
+  // the position of the variable with the given id, or -1
+  int position(int id) {
+    int i = Arrays.binarySearch(this.sorted, id);
+    return i >= 0 ? this.positions[i] : -1;
+  }
+}
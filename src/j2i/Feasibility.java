@@ -0,0 +1,193 @@
+package j2i;
+
+import java.util.*;
+
+// A cheap and sound satisfiability check of clauses over the integers, used to prune infeasible clauses on
+// composition (cf Formula.compose).
+//
+// Linear constraints are written as rows a_1*x_1 + ... + a_k*x_k + c >= 0 (equations as two rows, strict inequalities
+// as c - 1); non-linear constraints are ignored. Rows are divided by the gcd of their coefficients and the constant is
+// rounded down, which is valid for integers. Bounds of single variables are checked first; then variables are
+// eliminated by Fourier-Motzkin as long as the number of rows stays below MAX_ROWS. A clause is infeasible only if a
+// row 0 + c >= 0 with c < 0 is derived; otherwise (also on overflow) it is considered feasible.
+final class Feasibility {
+
+  private static final int MAX_ROWS = 64;
+
+  private Feasibility() {
+  }
+
+  static boolean isFeasible(Clause clause) {
+    // the columns of the rows are the positions of the variables in vars
+    int[] vars = clause.variables();
+    int k = vars.length;
+    List<long[]> rows = new ArrayList<>();
+    try {
+      for (Constraint c : clause) {
+        if (!(c instanceof LinearConstraint)) {
+          continue;
+        }
+        long[] row = new long[k + 1];
+        ((LinearConstraint) c).row(vars, row);
+        switch (c.op) {
+          case Constraint.GE:
+            rows.add(row);
+            break;
+          case Constraint.GT:
+            row[k] = Math.subtractExact(row[k], 1);
+            rows.add(row);
+            break;
+          case Constraint.LE:
+            rows.add(negate(row));
+            break;
+          case Constraint.LT:
+            long[] neg = negate(row);
+            neg[k] = Math.subtractExact(neg[k], 1);
+            rows.add(neg);
+            break;
+          default:
+            rows.add(row);
+            rows.add(negate(row));
+        }
+      }
+      if (!normalize(rows, k) || !bounds(rows, k)) {
+        return false;
+      }
+      return eliminate(rows, k);
+    } catch (ArithmeticException e) {
+      return true;
+    }
+  }
+
+  private static long[] negate(long[] row) {
+    long[] neg = new long[row.length];
+    for (int i = 0; i < row.length; i++) {
+      neg[i] = Math.negateExact(row[i]);
+    }
+    return neg;
+  }
+
+  // divides the rows by the gcd of their coefficients; removes trivial rows and returns false on a contradiction
+  private static boolean normalize(List<long[]> rows, int k) {
+    Iterator<long[]> it = rows.iterator();
+    while (it.hasNext()) {
+      long[] row = it.next();
+      long g = 0;
+      for (int i = 0; i < k; i++) {
+        g = gcd(g, Math.abs(row[i]));
+      }
+      if (g == 0) {
+        if (row[k] < 0) {
+          return false;
+        }
+        it.remove();
+      } else if (g > 1) {
+        for (int i = 0; i < k; i++) {
+          row[i] /= g;
+        }
+        row[k] = Math.floorDiv(row[k], g);
+      }
+    }
+    return true;
+  }
+
+  // interval check on the rows over a single variable, ie x + c >= 0 and -x + d >= 0 (after normalisation)
+  private static boolean bounds(List<long[]> rows, int k) {
+    long[] lower = new long[k];
+    long[] upper = new long[k];
+    Arrays.fill(lower, Long.MIN_VALUE);
+    Arrays.fill(upper, Long.MAX_VALUE);
+    for (long[] row : rows) {
+      int var = -1;
+      int vars = 0;
+      for (int i = 0; i < k; i++) {
+        if (row[i] != 0) {
+          var = i;
+          vars++;
+        }
+      }
+      if (vars != 1) {
+        continue;
+      }
+      if (row[var] > 0) {
+        lower[var] = Math.max(lower[var], Math.negateExact(row[k]));
+      } else {
+        upper[var] = Math.min(upper[var], row[k]);
+      }
+      if (lower[var] > upper[var]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Fourier-Motzkin elimination; returns true if no contradiction is found within MAX_ROWS rows
+  private static boolean eliminate(List<long[]> rows, int k) {
+    BitSet eliminated = new BitSet(k);
+    while (!rows.isEmpty()) {
+      int best = -1;
+      long cost = Long.MAX_VALUE;
+      for (int i = 0; i < k; i++) {
+        if (eliminated.get(i)) {
+          continue;
+        }
+        long pos = 0;
+        long neg = 0;
+        for (long[] row : rows) {
+          if (row[i] > 0) {
+            pos++;
+          } else if (row[i] < 0) {
+            neg++;
+          }
+        }
+        long c = pos * neg - pos - neg;
+        if (c < cost) {
+          cost = c;
+          best = i;
+        }
+      }
+      if (best < 0) {
+        return true;
+      }
+      if (rows.size() + cost > MAX_ROWS) {
+        return true;
+      }
+      eliminated.set(best);
+      List<long[]> next = new ArrayList<>();
+      List<long[]> pos = new ArrayList<>();
+      List<long[]> neg = new ArrayList<>();
+      for (long[] row : rows) {
+        if (row[best] > 0) {
+          pos.add(row);
+        } else if (row[best] < 0) {
+          neg.add(row);
+        } else {
+          next.add(row);
+        }
+      }
+      for (long[] p : pos) {
+        for (long[] n : neg) {
+          long[] row = new long[k + 1];
+          for (int i = 0; i <= k; i++) {
+            row[i] = Math.addExact(Math.multiplyExact(-n[best], p[i]), Math.multiplyExact(p[best], n[i]));
+          }
+          next.add(row);
+        }
+      }
+      if (!normalize(next, k)) {
+        return false;
+      }
+      rows = next;
+    }
+    return true;
+  }
+
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
@@ -5,16 +5,21 @@ import java.util.*;
 import java.util.function.*;
 import java.util.stream.*;
 
-// A Clause is a conjunction of constraints.
+// A Clause is a conjunction of constraints, stored in a flat array.
 final class Clause implements Iterable<Constraint>, PrettyPrint {
 
-  private List<Constraint> constraints;
+  private Constraint[] constraints;
+  private int size;
+  // the ids of the variables of the constraints in ascending order; reset on modification
+  private int[] vars;
 
   Clause(Constraint... cs) {
-    this.constraints = new LinkedList<>();
-    for (Constraint c : cs) {
-      constraints.add(c);
-    }
+    this.constraints = cs.clone();
+    this.size = cs.length;
+  }
+
+  private Clause(int capacity) {
+    this.constraints = new Constraint[capacity];
   }
 
   // We assume that only post-variables are considered to be modified.
@@ -25,48 +30,82 @@ final class Clause implements Iterable<Constraint>, PrettyPrint {
   //   case 2.b) v' in     [[exp_2]]: then we introduce a fresh var v^, ie [[exp_1]][v' |-> v^] and [[exp_2]][v |-> v^]
   static Clause compose(Clause lhs, Clause rhs) {
     FreshSupply f = new FreshSupply("imm.");
-    Predicate<Var> isPost = v -> v.isPostVar();
-    Set<Var> lvars = lhs.variables(isPost);
-    Set<Var> rvars = rhs.variables(isPost);
+    int[] lvars = lhs.variables();
+    int[] rvars = rhs.variables();
     Map<Var, AExpr> lmap = new HashMap<>();
     Map<Var, AExpr> rmap = new HashMap<>();
-    for (Var v : lvars) {
-      if (!rvars.contains(v)) { // case v'  in [[exp_1]] and v' not in [exp_2]]
+    List<Var> modified = new ArrayList<>();
+    for (int i : lvars) {
+      if (!Var.isPostId(i)) {
+        continue;
+      }
+      Var v = Var.byId(i);
+      if (!Var.contains(rvars, i)) {      // case v'  in [[exp_1]] and v' not in [exp_2]]
         rmap.put(Var.newPreVar(v), v);
-      } else {                // case v'  in [[exp_1]] and v' in [exp_2]]
-        Var imm = f.freshVar();
-        lmap.put(v, imm);
-        rmap.put(Var.newPreVar(v), imm);
+      } else {                  // case v'  in [[exp_1]] and v' in [exp_2]]
+        modified.add(v);
       }
     }
+    // fresh variables are named in the order of the symbols, as ids depend on the order of translation
+    modified.sort(Comparator.comparing(v -> v.symb));
+    for (Var v : modified) {
+      // the clauses may already contain intermediate variables of earlier compositions
+      Var imm = f.freshVar();
+      while (Var.contains(lvars, imm.id) || Var.contains(rvars, imm.id)) {
+        imm = f.freshVar();
+      }
+      lmap.put(v, imm);
+      rmap.put(Var.newPreVar(v), imm);
+    }
 
-    for (Constraint c : lhs.constraints) {
-      c.substitute(lmap);
+    Clause clause = new Clause(rhs.size + lhs.size);
+    for (int i = 0; i < rhs.size; i++) {
+      clause.constraints[clause.size++] = rhs.constraints[i].substitute(rmap);
     }
-    for (Constraint c : rhs.constraints) {
-      c.substitute(rmap);
+    for (int i = 0; i < lhs.size; i++) {
+      clause.constraints[clause.size++] = lhs.constraints[i].substitute(lmap);
     }
 
-    Clause clause = new Clause();
-    clause.constraints.addAll(rhs.constraints);
-    clause.constraints.addAll(lhs.constraints);
-
     return clause;
   }
 
   void addAll(Constraint... cs) {
-    for (Constraint c : cs) {
-      constraints.add(c);
+    if (this.size + cs.length > this.constraints.length) {
+      this.constraints = Arrays.copyOf(this.constraints, Math.max(2 * this.constraints.length, this.size + cs.length));
     }
+    System.arraycopy(cs, 0, this.constraints, this.size, cs.length);
+    this.size += cs.length;
+    this.vars = null;
   }
 
-  boolean hasVar(Var var) {
-    for (Constraint c : constraints) {
-      if (c.hasVar(var)) {
-        return true;
-      }
+  // the ids of the variables of the clause in ascending order; the array must not be modified
+  int[] variables() {
+    if (this.vars == null) {
+      this.vars = variables(this.constraints, this.size);
     }
-    return false;
+    return this.vars;
+  }
+
+  private static int[] variables(Constraint[] cs, int size) {
+    if (size == 1) {
+      return cs[0].variables();
+    }
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      n += cs[i].variables().length;
+    }
+    int[] vars = new int[n];
+    n = 0;
+    for (int i = 0; i < size; i++) {
+      int[] ids = cs[i].variables();
+      System.arraycopy(ids, 0, vars, n, ids.length);
+      n += ids.length;
+    }
+    return Arrays.copyOf(vars, Var.toSet(vars, n));
+  }
+
+  boolean hasVar(Var var) {
+    return Var.contains(this.variables(), var.id);
   }
 
   Set<Var> variables(Predicate<Var> p) {
@@ -76,54 +115,196 @@ final class Clause implements Iterable<Constraint>, PrettyPrint {
   }
 
   void addVariables(Set<Var> vars, Predicate<Var> p) {
-    for (Constraint c : constraints) {
-      c.addVariables(vars, p);
-    }
+    Var.addAll(this.variables(), vars, p);
   }
 
   void substitute(Map<Var, AExpr> smap) {
-    for (Constraint c : constraints) {
-      c.substitute(smap);
+    for (int i = 0; i < this.size; i++) {
+      this.constraints[i] = this.constraints[i].substitute(smap);
+    }
+    this.vars = null;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  Clause copy() {
+    Clause clause = new Clause(this.constraints.length);
+    System.arraycopy(this.constraints, 0, clause.constraints, 0, this.size);
+    clause.size = this.size;
+    return clause;
+  }
+
+  // Eliminates local variables (eg intermediate variables of composition) by means of equations in which they have
+  // the coefficient 1 or -1: v + e = 0 is dropped and v is replaced by -e in the other constraints, which is exact over
+  // the integers. An elimination is skipped if a non-local post-variable would disappear, as it would then be
+  // considered unchanged.
+  void eliminate(Predicate<Var> local) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < this.size && !changed; i++) {
+        Constraint c = this.constraints[i];
+        if (c.op != Constraint.EQ || !(c instanceof LinearConstraint)) {
+          continue;
+        }
+        LinearConstraint lc = (LinearConstraint) c;
+        for (int j = 0; j < lc.terms() && !changed; j++) {
+          Var v = Var.byId(lc.id(j));
+          long a = lc.coeff(j);
+          if ((a == 1 || a == -1) && local.test(v)) {
+            changed = eliminate(i, v, a, local);
+          }
+        }
+      }
+    }
+  }
+
+  private boolean eliminate(int i, Var v, long a, Predicate<Var> local) {
+    AExpr e = AExpr.sub(this.constraints[i].lhs(), Mul.of(Val.of(a), v));
+    Map<Var, AExpr> smap = Collections.singletonMap(v, a == 1 ? AExpr.neg(e) : e);
+    Constraint[] cs = new Constraint[this.constraints.length];
+    int k = 0;
+    for (int j = 0; j < this.size; j++) {
+      if (j != i) {
+        cs[k++] = this.constraints[j].substitute(smap);
+      }
+    }
+    int[] vars = variables(cs, k);
+    for (int id : this.variables()) {
+      if (Var.isPostId(id) && !Var.contains(vars, id) && !local.test(Var.byId(id))) {
+        return false;
+      }
+    }
+    this.constraints = cs;
+    this.size = k;
+    this.vars = vars;
+    return true;
+  }
+
+  // Removes duplicates, trivially true constraints and constraints that are implied by the bounds of single variables
+  // in the clause, eg x >= 1 && y >= x && y >= 0 becomes x >= 1 && y >= x (cf Constraint for the canonical form).
+  void simplify() {
+    Set<Constraint> seen = new HashSet<>();
+    int n = 0;
+    for (int i = 0; i < this.size; i++) {
+      if (seen.add(this.constraints[i])) {
+        this.constraints[n++] = this.constraints[i];
+      }
+    }
+    // per variable: lower bound, upper bound and the constraints they stem from; equations first, they win ties
+    Map<Integer, long[]> bounds = new HashMap<>();
+    for (byte op : new byte[] {Constraint.EQ, Constraint.LE}) {
+      for (int i = 0; i < n; i++) {
+        Constraint c = this.constraints[i];
+        if (c.op == op && c instanceof LinearConstraint && ((LinearConstraint) c).terms() == 1) {
+          bound(bounds, (LinearConstraint) c, i);
+        }
+      }
+    }
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      Constraint c = this.constraints[i];
+      if (!(c instanceof LinearConstraint) || !isImplied(bounds, (LinearConstraint) c, i)) {
+        this.constraints[k++] = c;
+      }
+    }
+    Arrays.fill(this.constraints, k, this.size, null);
+    this.size = k;
+    this.vars = null;
+  }
+
+  // bounds of x from x + c <= 0, -x + c <= 0 and x + c = 0
+  private static void bound(Map<Integer, long[]> bounds, LinearConstraint c, int i) {
+    long a = c.coeff(0);
+    if (a != 1 && a != -1 || c.constant() == Long.MIN_VALUE) {
+      return;
+    }
+    long[] b = bounds.computeIfAbsent(c.id(0), id -> new long[] {Long.MIN_VALUE, Long.MAX_VALUE, -1, -1});
+    boolean lower = c.op == Constraint.EQ || a < 0;
+    boolean upper = c.op == Constraint.EQ || a > 0;
+    long v = a > 0 ? -c.constant() : c.constant();
+    if (lower && v > b[0]) {
+      b[0] = v;
+      b[2] = i;
+    }
+    if (upper && v < b[1]) {
+      b[1] = v;
+      b[3] = i;
+    }
+  }
+
+  // c (at index i) is implied by the bounds of the other constraints
+  private static boolean isImplied(Map<Integer, long[]> bounds, LinearConstraint c, int i) {
+    try {
+      long min = c.constant();
+      long max = c.constant();
+      for (int j = 0; j < c.terms(); j++) {
+        long[] b = bounds.get(c.id(j));
+        if (b == null || b[2] == i || b[3] == i) {
+          return false;
+        }
+        long a = c.coeff(j);
+        // the bounds of x that minimise and maximise a*x; an inequality needs only the latter
+        long hi = a > 0 ? b[1] : b[0];
+        long lo = a > 0 ? b[0] : b[1];
+        if (hi == Long.MIN_VALUE || hi == Long.MAX_VALUE) {
+          return false;
+        }
+        max = Math.addExact(max, Math.multiplyExact(a, hi));
+        if (c.op == Constraint.EQ) {
+          if (lo == Long.MIN_VALUE || lo == Long.MAX_VALUE) {
+            return false;
+          }
+          min = Math.addExact(min, Math.multiplyExact(a, lo));
+        }
+      }
+      return c.op == Constraint.EQ ? min == 0 && max == 0 : max <= 0;
+    } catch (ArithmeticException e) {
+      return false;
     }
   }
 
   @Override
   public Iterator<Constraint> iterator() {
-    return this.constraints.iterator();
+    return Collections.unmodifiableList(Arrays.asList(this.constraints).subList(0, this.size)).iterator();
   }
 
   @Override
   public String pp() {
     StringBuilder b = new StringBuilder();
-    Iterator<Constraint> cs = constraints.iterator();
-    while (cs.hasNext()) {
-      Constraint constraint = cs.next();
-      b.append(constraint.pp());
-      if (cs.hasNext()) {
+    for (int i = 0; i < this.size; i++) {
+      if (i > 0) {
         b.append(" && ");
       }
+      b.append(this.constraints[i].pp());
     }
     return b.toString();
   }
 
   @Override
   public String toString() {
-    return "Clause{" + "constraints=" + constraints + '}';
+    return "Clause{" + "constraints=" + Arrays.asList(this.constraints).subList(0, this.size) + '}';
   }
 }
 
 // A Formula is a disjunction of clauses.
-// We use (Constraint ...) to denote a clause.
+// We use (Constraint ...) to denote a clause. The empty disjunction is true, unless the formula is unsatisfiable,
+// which happens if all clauses of a composition are pruned (cf compose).
+// Formulas and clauses are mutable, but confined to the translation of a single body; operations that build a formula
+// from others (compose, substitute) do not modify their operands.
 final class Formula implements Iterable<Clause>, PrettyPrint {
 
   List<Clause> dnf;
+  private boolean unsat;
 
   Formula() {
-    this.dnf = new LinkedList<>();
+    this.dnf = new ArrayList<>();
   }
 
   Formula(Constraint... cs) {
-    this.dnf = new LinkedList<>();
+    this.dnf = new ArrayList<>();
     if (cs.length > 0) {
       this.dnf.add(new Clause(cs));
     }
@@ -137,24 +318,43 @@ final class Formula implements Iterable<Clause>, PrettyPrint {
     return new Formula();
   }
 
+  static Formula unsat() {
+    Formula f = new Formula();
+    f.unsat = true;
+    return f;
+  }
+
   static Formula compose(Formula lhs, Formula rhs) {
+    return compose(lhs, rhs, new MethodStats());
+  }
+
+  // Clauses are simplified (cf Clause.simplify); infeasible clauses are dropped (cf Feasibility) and counted in stats.
+  static Formula compose(Formula lhs, Formula rhs, MethodStats stats) {
     Formula f = new Formula();
 
-    if (lhs.isEmpty()) {
-      f.dnf.addAll(rhs.dnf);
-      return f;
+    if (lhs.isUnsat() || rhs.isUnsat()) {
+      return unsat();
     }
-    if (rhs.isEmpty()) {
-      f.dnf.addAll(lhs.dnf);
+    if (lhs.isEmpty() || rhs.isEmpty()) {
+      // the clauses are copied, as the operands may be shared (eg the guard of a block by all its edges)
+      for (Clause clause : lhs.isEmpty() ? rhs.dnf : lhs.dnf) {
+        Clause c = clause.copy();
+        c.simplify();
+        f.dnf.add(c);
+      }
       return f;
     }
     for (Clause lclause : lhs.dnf) {
       for (Clause rclause : rhs.dnf) {
         Clause c3 = Clause.compose(lclause, rclause);
-        f.dnf.add(c3);
+        c3.simplify();
+        if (Feasibility.isFeasible(c3)) {
+          f.dnf.add(c3);
+        }
       }
     }
-    return f;
+    stats.pruned(lhs.size() * rhs.size() - f.size());
+    return f.isEmpty() ? unsat() : f;
   }
 
   Formula and(Constraint... cs) {
@@ -166,11 +366,22 @@ final class Formula implements Iterable<Clause>, PrettyPrint {
 
   Formula or(Constraint... cs) {
     this.dnf.add(new Clause(cs));
+    this.unsat = false;
     return this;
   }
 
+  // true, ie no constraints
   boolean isEmpty() {
-    return this.dnf.isEmpty();
+    return this.dnf.isEmpty() && !this.unsat;
+  }
+
+  boolean isUnsat() {
+    return this.unsat;
+  }
+
+  // the number of clauses
+  int size() {
+    return this.dnf.size();
   }
 
   boolean hasVar(Var var) {
@@ -200,11 +411,16 @@ final class Formula implements Iterable<Clause>, PrettyPrint {
     return this.substitute(smap);
   }
 
+  // returns a new formula; the clauses of this formula may be shared and are not modified
   Formula substitute(Map<Var, AExpr> smap) {
+    Formula f = new Formula();
+    f.unsat = this.unsat;
     for (Clause clause : this.dnf) {
-      clause.substitute(smap);
+      Clause c = clause.copy();
+      c.substitute(smap);
+      f.dnf.add(c);
     }
-    return this;
+    return f;
   }
 
   @Override
@@ -214,6 +430,9 @@ final class Formula implements Iterable<Clause>, PrettyPrint {
 
   @Override
   public String pp() {
+    if (this.unsat) {
+      return "false";
+    }
     StringBuilder b = new StringBuilder();
     Iterator<Clause> clauses = this.dnf.iterator();
     while (clauses.hasNext()) {
@@ -228,7 +447,7 @@ final class Formula implements Iterable<Clause>, PrettyPrint {
 
   @Override
   public String toString() {
-    return "Formula{" + "dnf=" + dnf + '}';
+    return "Formula{" + "dnf=" + dnf + ", unsat=" + unsat + '}';
   }
 }
 
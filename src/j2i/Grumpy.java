@@ -12,6 +12,8 @@ import soot.*;
 import soot.Type.*;
 import soot.jimple.*;
 import soot.PhaseOptions;
+import soot.toolkits.graph.Block;
+import soot.toolkits.graph.BriefBlockGraph;
 
 /*
 
@@ -33,12 +35,11 @@ Implementation
   A short overview of the implementation:
 
   The provided transformation is a simple syntactical transformation not making use of a fixed-point construction.
-  Each statement is translated in one, two (or more) transitions depending on the possible flow of the statement.
-  Here, a transition is a 5 tuple consisting of the source label, target label, lower bound cost, upper bound cost and
-  a guard. A guard is a DNF Formula over atoms. An atom is a comparison constraint between arithmetic expressions. We
+  Control flow is taken from the basic blocks of Soot's (brief) block graph: each block is a location and each edge
+  is a transition, whose guard composes the statements of the block and the condition of the edge. Here, a
+  transition is a 5 tuple consisting of the source label, target label, lower bound cost, upper bound cost and a
+  guard. A guard is a DNF Formula over atoms. An atom is a comparison constraint between arithmetic expressions. We
   use primed Variables to indicate post variables.
-  Jimple code contains labelled and unlabelled statements. For the transformation we additionally provide an
-  instruction counter to generate labels for the transition system.
   The implementation provides a path-length abstraction for arrays and objects. Sharing information is ignored, hence
   the abstraction is unsound. 
   Method summaries are used for method calls. A method summary is considered to abstract all possible calls. 
@@ -46,21 +47,33 @@ Implementation
 Method Summaries.
   Execution requires summary files relative to runtime "./summaries.json". The default summary uses constant
   complexity. No warning is given if the default summary is used.
+  Summary files are parsed once per run and shared (read-only) by all method bodies, cf MethodSummaries.shared.
 
 KoAT
   Recommended Flags: --use-its-parser --use-termcomp-format
 
+Concurrency
+  A Grumpy instance translates a single body and must be confined to one thread. Soot is not thread-safe: resolving a
+  method or field reference may modify the Scene. Thus the references of a body are resolved once, on the thread that
+  runs the Soot transformer, before the translation is handed to other threads, cf References. The translation itself
+  only reads the body and its References; the state shared between instances is immutable (expressions, constraints,
+  labels, summaries) or thread-safe (the interners and the symbol table of Var). Thus different bodies - or the same
+  body - can be translated concurrently, cf the jtp.stress phase of the example application.
+
 Optimisations
   Variable Domain.
-    At the moment we add all local variables provided by a Soot method, cf Domain.addLocals.
+    We add all local variables provided by a Soot method, cf Domain.addLocals. After compaction copies and constants
+    are propagated and variables that are never read are removed from the domain, cf Propagation.
 
     Jimple's 3-address code introduces (a lot of) intermediate variables for stack operations (usually indicated with
-    prefix '$'). We want to reduce the number of variables. A simple (but possible incomplete) heuristic is to assume
-    that stack variables are only alive in sequence blocks. Thus we can ignore them if we compose sequences wrt. jump
-    instructions. Alternatively, Soot provides a live-ness analysis. KoAT also implements argument filtering.
+    prefix '$'). These are usually only alive within a block, thus dead at the cut points that remain after
+    compaction. A live-variable analysis over the location graph drops assignments to variables that are dead at
+    their target and removes variables that are live nowhere from the domain, cf Liveness. KoAT also implements
+    argument filtering.
 
-    The local variables do not contain static field references. In particular something simple like for(int i =0; i < MAX; i++);
-    is not handled as MAX is considered undefined.
+    The local variables do not contain static field references. Thus the primitive static fields that a body references
+    (or that the summaries of its calls mention) are added, cf Domain.addFields; otherwise something simple like
+    for(int i =0; i < MAX; i++); is not handled as MAX is considered undefined.
 
   Support for Long and other Arithmetic Operations.
     Comparison for long values use special operators which are currently ignored. Thus loops using long values are
@@ -75,30 +88,100 @@ Optimisations
 
 public final class Grumpy {
 
-  final static Var res = new Var("res");
-  final private Var rez = new Var("ret");
-  final private Var thiz = new Var("this");
+  final static Var res = Var.of("res");
+  final private Var rez = Var.of("ret");
+  final private Var thiz = Var.of("this");
   protected JimpleBody body;
   protected Domain domain;
-  protected LabelMaker labelMaker;
-  protected MethodSummaries summaries;
+  protected References refs;
   protected SizeAbstraction sizeAbstraction = new NodeFieldsAbstraction();
   private int varId = 0;
-
-  public Grumpy(JimpleBody body, Map<String, String> opts){
+  // maximal number of clauses of the guard of a block, cf jimpleBody2Its
+  private static final int MAX_CLAUSES = 64;
+  private boolean constantCalls = true;
+  private MethodStats stats = new MethodStats();
+  private String compaction;
+  private int budget;
+  private boolean slicing;
+  // the variables that the cost of calls depends on, cf Slicing
+  private Set<Var> costArgs = new HashSet<>();
+
+  // the references of the body have to be resolved on the thread that runs Soot, cf References
+  public Grumpy(JimpleBody body, References refs, Map<String, String> opts){
     this.body = body;
-    this.labelMaker = new LabelMaker(body);
     this.domain = new Domain();
     this.domain.addLocals(body);
-    this.domain.addFields(body);
-    String fp = PhaseOptions.getString(opts, "summaries-file");
-    this.summaries = MethodSummaries.fromFile( fp.isEmpty() ? "summaries.json" : fp );
+    this.refs = refs;
+    this.domain.addFields(refs);
+    this.compaction = compaction(opts);
+    this.budget = budget(opts);
+    this.slicing = PhaseOptions.getBoolean(opts, "slicing");
+  }
+
+  // resolves the references of the body on the calling thread
+  public Grumpy(JimpleBody body, Map<String, String> opts) {
+    this(body, References.of(body, opts), opts);
   }
 
   public Grumpy(JimpleBody body) {
     this(body, new HashMap<String,String>());
   }
 
+  static MethodSummaries summaries(Map<String, String> opts) {
+    String fp = PhaseOptions.getString(opts, "summaries-file");
+    return MethodSummaries.shared( fp.isEmpty() ? "summaries.json" : fp );
+  }
+
+  // Compaction of the transition system: none (one location per basic block), adjacent (cf Transitions.compact) or
+  // cut-points (cf Transitions.chain; default).
+  private static String compaction(Map<String, String> opts) {
+    String mode = PhaseOptions.getString(opts, "compaction");
+    return mode.equals("none") || mode.equals("adjacent") ? mode : "cut-points";
+  }
+
+  // maximal number of clauses of a chained transition
+  private static int budget(Map<String, String> opts) {
+    int budget = PhaseOptions.getInt(opts, "compaction-budget");
+    return budget > 0 ? budget : 16;
+  }
+
+  // The number of distinct variable names of the process; they are never released, cf Var.
+  public static int symbols() {
+    return Var.symbols();
+  }
+
+  // The version of Grumpy, as recorded in the manifest of grumpy.jar.
+  public static String version() {
+    String version = Grumpy.class.getPackage().getImplementationVersion();
+    return version != null ? version : "unknown";
+  }
+
+  // Identifies the translation of a method body without translating it: the hash of its Jimple code, the static fields
+  // it references (cf Domain.addFields), the summaries resolved for its calls, the compaction, the slicing and the
+  // version of Grumpy.
+  public static String fingerprint(JimpleBody body, References refs, Map<String, String> opts) {
+    DigestWriter out = new DigestWriter();
+    out.write(version());
+    out.write('\0');
+    out.write(compaction(opts) + " " + budget(opts) + " " + PhaseOptions.getBoolean(opts, "slicing"));
+    out.write('\0');
+    out.write(body.toString());
+    for (Var field : refs.fields()) {
+      out.write('\0');
+      out.write(field.symb);
+    }
+    for (Unit unit : body.getUnits()) {
+      Stmt stmt = (Stmt) unit;
+      if (stmt.containsInvokeExpr() && !(stmt.getInvokeExpr() instanceof DynamicInvokeExpr)) {
+        out.write('\0');
+        out.write(refs.summary(stmt.getInvokeExpr().getMethodRef())
+          .orElse(MethodSummary.defaultSummary())
+          .toString());
+      }
+    }
+    return out.hex();
+  }
+
 
 
   protected static boolean isPrimitive(final SootField field) {
@@ -119,39 +202,36 @@ public final class Grumpy {
   }
 
   static Var var(Value value) {
-    return new Var(getSymbol(value));
+    return Var.of(getSymbol(value));
   }
 
   static Var pvar(Value value) {
-    return new Var(getSymbol(value), true);
+    return Var.of(getSymbol(value), true);
   }
 
   static String getSymbol(SootField field) {
     return field.getDeclaringClass().getName() + "." + field.getName();
   }
 
-  static String getSymbol(StaticFieldRef ref) {
-    return getSymbol(ref.getField());
-  }
-
   static Var var(SootField field) {
-    return new Var(getSymbol(field));
+    return Var.of(getSymbol(field));
   }
 
-  static Var var(StaticFieldRef ref) {
-    return new Var(getSymbol(ref));
+  // the symbol of a static field is taken from the resolved references, cf References
+  Var var(StaticFieldRef ref) {
+    return Var.of(this.refs.symbol(ref));
   }
 
   static Var var(InstanceFieldRef ref) {
-    return new Var(getSymbol(ref.getBase()));
+    return Var.of(getSymbol(ref.getBase()));
   }
 
-  static Var pvar(StaticFieldRef ref) {
-    return new Var(getSymbol(ref), true);
+  Var pvar(StaticFieldRef ref) {
+    return Var.of(this.refs.symbol(ref), true);
   }
 
   static Var pvar(InstanceFieldRef ref) {
-    return new Var(getSymbol(ref.getBase()), true);
+    return Var.of(getSymbol(ref.getBase()), true);
   }
 
   // we treat long as int
@@ -171,99 +251,112 @@ public final class Grumpy {
     return hasRefType(val.getType());
   }
 
-  private static boolean hasIntType(SootField field) {
-    return hasIntType(field.getType());
-  }
-
-  private static boolean hasRefType(SootField field) {
-    return hasRefType(field.getType());
-  }
-
   protected Var freshVar() {
-    return new Var("fresh_" + varId++);
+    return Var.of("fresh_" + varId++);
   }
 
+  // Control flow is taken from the (brief) block graph of the body, ie exceptional edges are ignored. Each basic block
+  // is a location. The statements of a block are composed into a single guard, and each edge of the graph becomes a
+  // transition whose guard is the guard of the block followed by the condition of the edge. Blocks without successors
+  // (return, throw) lead to a common exit location. Location 0 is the first block, ie the start location. Switch
+  // statements are modelled as non-deterministic jumps.
   public Transitions jimpleBody2Its() {
     Transitions ts = new Transitions();
-    for (Unit unit : body.getUnits()) {
-      Stmt stmt = (Stmt) unit;
-      Transitions now = this.transformStatement(stmt);
-      ts = ts.add(now);
-      Debug.trace(stmt + ">>>\n\t" + now.pp());
+    List<Block> blocks = new BriefBlockGraph(this.body).getBlocks();
+    Label[] labels = new Label[blocks.size()];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = new Label(i);
+    }
+    Label exit = new Label(labels.length);
+    int next = labels.length + 1;
+    for (Block block : blocks) {
+      Label from = labels[block.getIndexInMethod()];
+      Formula guard = Formula.empty();
+      for (Unit unit : block) {
+        Stmt stmt = (Stmt) unit;
+        Formula now = this.transformStatement(stmt);
+        if (Debug.doTrace) {
+          Debug.trace(stmt + ">>>\n\t" + now.pp());
+        }
+        // split the block if the composed guard gets too large
+        if (guard.size() * now.size() > MAX_CLAUSES) {
+          Label to = new Label(next++);
+          ts.add(new Transition(from, guard, to));
+          from = to;
+          guard = Formula.empty();
+        }
+        guard = Formula.compose(guard, now, this.stats);
+      }
+      Stmt tail = (Stmt) block.getTail();
+      Formula[] branches = tail instanceof IfStmt ? transformIfStmt((IfStmt) tail) : null;
+      Unit fallthrough = this.body.getUnits().getSuccOf(tail);
+      for (Block succ : new LinkedHashSet<>(block.getSuccs())) {
+        Formula condition = Formula.empty();
+        if (branches != null && ((IfStmt) tail).getTarget() != fallthrough) {
+          condition = succ.getHead() == fallthrough ? branches[1] : branches[0];
+        }
+        ts.add(new Transition(from, Formula.compose(guard, condition, this.stats), labels[succ.getIndexInMethod()]));
+      }
+      if (block.getSuccs().isEmpty()) {
+        ts.add(new Transition(from, guard, exit));
+      }
     }
     return ts;
   }
 
+  // the transition system sliced (if configured), pruned and strengthened by bounds (cf Intervals), compacted as
+  // configured (cf compaction), with copies and constants propagated and dead variables removed
   public KoAT jimpleBody2KoAT() {
-    return new KoAT(this.domain, jimpleBody2Its());
+    KoAT k = jimpleBody2KoAT(false);
+    if (this.slicing) {
+      k.slice(this.costArgs);
+    }
+    k.intervals();
+    if (this.compaction.equals("adjacent")) {
+      k.compact();
+    } else if (this.compaction.equals("cut-points")) {
+      k.chain(this.budget);
+    }
+    return k.propagate().liveness();
   }
 
   public KoAT jimpleBody2KoAT(boolean compose) {
-    KoAT k = new KoAT(this.domain, jimpleBody2Its());
+    KoAT k = new KoAT(this.domain, jimpleBody2Its(), this.constantCalls, this.stats);
     return compose ? k.compact() : k;
   }
 
-  private boolean hasDefinedLabel(Unit stmt) {
-    return this.labelMaker.hasDefinedLabel(stmt);
-  }
-
-  private Label currentLabel(Unit stmt) {
-    return this.labelMaker.currentLabel(stmt);
-  }
-
-  private Label targetLabel(Unit stmt) {
-    return this.labelMaker.targetLabel(stmt);
-  }
-
-  private Label fallthrougLabel() {
-    return this.labelMaker.fallthroughLabel();
-  }
-
-
-  //
-  // To implement chaining of blocks we want to provide only one transition for (non-labelled and non-jumping)
-  // statements. To mimic non-determinism use disjunctive guards.
-  private Transitions transformStatement(Stmt stmt) {
+  // The effect of a statement. Jumps have no effect; their conditions are considered on the edges of the block graph.
+  // To mimic non-determinism use disjunctive guards.
+  private Formula transformStatement(Stmt stmt) {
 
     if (stmt instanceof AssignStmt) {
       return transformAssignStmt((AssignStmt) stmt);
     }
 
-    if (stmt instanceof GotoStmt) {
-      return transformGotoStmt((GotoStmt) stmt);
-    }
-    if (stmt instanceof IfStmt) {
-      return transformIfStmt((IfStmt) stmt);
-    }
-
     if (stmt instanceof InvokeStmt) {
       return transformInvokeStmt((InvokeStmt) stmt);
     }
 
-    if (stmt instanceof SwitchStmt) {
-      return transformSwitchStmt((SwitchStmt) stmt);
-    }
-
-    if (stmt instanceof RetStmt
+    if (stmt instanceof GotoStmt
+        || stmt instanceof IfStmt
+        || stmt instanceof SwitchStmt
+        || stmt instanceof RetStmt
         || stmt instanceof ReturnStmt
         || stmt instanceof ReturnVoidStmt
-        || stmt instanceof ThrowStmt) {
-      return transformReturnStmt(stmt);
-    }
-
-    if (stmt instanceof IdentityStmt
+        || stmt instanceof ThrowStmt
+        || stmt instanceof IdentityStmt
         || stmt instanceof NopStmt
         || stmt instanceof EnterMonitorStmt
         || stmt instanceof ExitMonitorStmt
         || stmt instanceof BreakpointStmt) {
-      return transformIdentityStmt(stmt);
+      return Formula.empty();
     }
 
     throw new RuntimeException(
         "transformStatement: unexpected statement: " + stmt + "@" + stmt.getClass());
   }
 
-  private Transitions transformAssignStmt(AssignStmt stmt) {
+  private Formula transformAssignStmt(AssignStmt stmt) {
     Value op1 = stmt.getLeftOp();
     Value op2 = stmt.getRightOp();
 
@@ -281,7 +374,7 @@ public final class Grumpy {
           + op1 + "@" + op1.getClass() + " := " + op2 + "@" + op2.getClass());
     }
 
-    return new Transitions(currentLabel(stmt), guard, fallthrougLabel());
+    return guard;
   }
 
   private Formula assignUndefined(Local local) {
@@ -362,13 +455,13 @@ public final class Grumpy {
     AExpr imm2 = transformImmediate((Immediate) expr.getOp2());
 
     if (expr instanceof AddExpr) {
-      return atom(as(lhs, new Add(imm1, imm2)));
+      return atom(as(lhs, Add.of(imm1, imm2)));
     }
     if (expr instanceof MulExpr) {
-      return atom(as(lhs, new Mul(imm1, imm2)));
+      return atom(as(lhs, Mul.of(imm1, imm2)));
     }
     if (expr instanceof SubExpr) {
-      return atom(as(lhs, new Sub(imm1, imm2)));
+      return atom(as(lhs, Sub.of(imm1, imm2)));
     }
 
     // CmpExpr, CmpgExpr, CmplExpr  - comparison for long, float
@@ -407,7 +500,7 @@ public final class Grumpy {
   }
 
   public Formula assignNegExpr(Local local, NegExpr expr) {
-    return atom(as(pvar(local), new Sub(Val.zero(), var(local))));
+    return atom(as(pvar(local), Sub.of(Val.zero(), var(local))));
   }
 
   public Formula assignInvokeExpr(Local local, InvokeExpr expr) {
@@ -429,6 +522,17 @@ public final class Grumpy {
       } else {
         msum = MethodSummary.defaultSummary();
       }
+      this.constantCalls &= msum.hasConstantUpperTime();
+      if (!msum.hasConstantUpperTime()) {
+        for (Value val : expr.getArgs()) {
+          if (val instanceof Local) {
+            this.costArgs.add(var((Local) val));
+          }
+        }
+        if (expr instanceof InstanceInvokeExpr) {
+          this.costArgs.add(var((Local) ((InstanceInvokeExpr) expr).getBase()));
+        }
+      }
       return evalMethodSummary(expr, msum);
     }
     throw new RuntimeException("evalInvokeExpr: unexpected expr: " + expr + "@" + expr.getClass());
@@ -444,7 +548,7 @@ public final class Grumpy {
     int i = 1;
     for (Value val : expr.getArgs()) {
       if (val instanceof Local) {
-        effect = effect.substitute(new Var("arg" + i), var((Local) val));
+        effect = effect.substitute(Var.of("arg" + i), var((Local) val));
       }
       i++;
     }
@@ -462,66 +566,45 @@ public final class Grumpy {
   // The declaring class is a super type of the runtime instance and we assume that the corresponding summary is
   // a representation of all possible calls.
   private Optional<MethodSummary> resolve(SootMethodRef ref) {
+    return this.refs.summary(ref);
+  }
+
+  static Optional<MethodSummary> resolve(MethodSummaries summaries, SootMethodRef ref) {
     String cname = ref.declaringClass().getName();
     String mname = ref.name();
     String descr = Util.getMethodDescriptor(ref.resolve());
-    return this.summaries.get(cname, mname, descr);
-  }
-
-  private Transitions transformGotoStmt(GotoStmt stmt) {
-    Stmt target = (Stmt) stmt.getTarget();
-    return new Transitions(currentLabel(stmt), targetLabel(target));
+    return summaries.get(cname, mname, descr);
   }
 
   // We have  imm1 condop imm2
-  private Transitions transformIfStmt(IfStmt stmt) {
+  // Returns the guards of the jump to the target and of the fall-through.
+  private Formula[] transformIfStmt(IfStmt stmt) {
     ConditionExpr condition = (ConditionExpr) stmt.getCondition();
-    Stmt target = stmt.getTarget();
 
     Immediate op1 = (Immediate) condition.getOp1();
     Immediate op2 = (Immediate) condition.getOp2();
     AExpr imm1 = transformImmediate(op1);
     AExpr imm2 = transformImmediate(op2);
 
-    Transitions ts = new Transitions();
-
-    Label from = currentLabel(stmt);
-    Label to = targetLabel(target);
-    Label next = fallthrougLabel();
-
     // guards for arithmetic operations over integers as atomic constraint
     if (hasIntType(op1)) {
       if (condition instanceof GtExpr) {
-        return ts
-            .add(new Transition(from, atom(gt(imm1, imm2)), to))
-            .add(new Transition(from, atom(le(imm1, imm2)), next));
+        return new Formula[] {atom(gt(imm1, imm2)), atom(le(imm1, imm2))};
       }
       if (condition instanceof GeExpr) {
-        return ts
-            .add(new Transition(from, atom(ge(imm1, imm2)), to))
-            .add(new Transition(from, atom(lt(imm1, imm2)), next));
+        return new Formula[] {atom(ge(imm1, imm2)), atom(lt(imm1, imm2))};
       }
       if (condition instanceof LeExpr) {
-        return ts
-            .add(new Transition(from, atom(le(imm1, imm2)), to))
-            .add(new Transition(from, atom(gt(imm1, imm2)), next));
+        return new Formula[] {atom(le(imm1, imm2)), atom(gt(imm1, imm2))};
       }
       if (condition instanceof LtExpr) {
-        return ts
-            .add(new Transition(from, atom(lt(imm1, imm2)), to))
-            .add(new Transition(from, atom(ge(imm1, imm2)), next));
+        return new Formula[] {atom(lt(imm1, imm2)), atom(ge(imm1, imm2))};
       }
       if (condition instanceof EqExpr) {
-        return ts
-            .add(new Transition(from, atom(eq(imm1, imm2)), to))
-            .add(new Transition(from, atom(gt(imm1, imm2))
-                .or(lt(imm1, imm2)), next));
+        return new Formula[] {atom(eq(imm1, imm2)), atom(gt(imm1, imm2)).or(lt(imm1, imm2))};
       }
       if (condition instanceof NeExpr) {
-        return ts
-            .add(new Transition(from, atom(gt(imm1, imm2))
-                .or(lt(imm1, imm2)), to))
-            .add(new Transition(from, atom(eq(imm1, imm2)), next));
+        return new Formula[] {atom(gt(imm1, imm2)).or(lt(imm1, imm2)), atom(eq(imm1, imm2))};
       }
     }
 
@@ -529,38 +612,26 @@ public final class Grumpy {
     if (hasRefType(op1)) {
       if (condition instanceof EqExpr && op1 instanceof NullConstant) // null == ref
       {
-        return ts
-            .add(new Transition(from, atom(eq(imm1, imm2)), to))
-            .add(new Transition(from, atom(lt(imm1, imm2)), next));
+        return new Formula[] {atom(eq(imm1, imm2)), atom(lt(imm1, imm2))};
       }
       if (condition instanceof EqExpr && op2 instanceof NullConstant) // ref == null
       {
-        return ts
-            .add(new Transition(from, atom(eq(imm1, imm2)), to))
-            .add(new Transition(from, atom(gt(imm1, imm2)), next));
+        return new Formula[] {atom(eq(imm1, imm2)), atom(gt(imm1, imm2))};
       }
       if (condition instanceof EqExpr)                                // ref == ref
       {
-        return ts
-            .add(new Transition(from, atom(eq(imm1, imm2)),
-                to))              // ref == ref => size(ref) == size(ref)
-            .add(new Transition(from, atom(), next));         // ref != ref => undefined
+        // ref == ref => size(ref) == size(ref); ref != ref => undefined
+        return new Formula[] {atom(eq(imm1, imm2)), atom()};
       }
 
       if (condition instanceof NeExpr && op1 instanceof NullConstant) {
-        return ts
-            .add(new Transition(from, atom(lt(imm1, imm2)), to))
-            .add(new Transition(from, atom(eq(imm1, imm2)), next));
+        return new Formula[] {atom(lt(imm1, imm2)), atom(eq(imm1, imm2))};
       }
       if (condition instanceof NeExpr && op2 instanceof NullConstant) {
-        return ts
-            .add(new Transition(from, atom(gt(imm1, imm2)), to))
-            .add(new Transition(from, atom(eq(imm1, imm2)), next));
+        return new Formula[] {atom(gt(imm1, imm2)), atom(eq(imm1, imm2))};
       }
       if (condition instanceof NeExpr) {
-        return ts
-            .add(new Transition(from, atom(), to))
-            .add(new Transition(from, atom(eq(imm1, imm2)), next));
+        return new Formula[] {atom(), atom(eq(imm1, imm2))};
       }
     }
 
@@ -570,32 +641,8 @@ public final class Grumpy {
 
   }
 
-  private Transitions transformInvokeStmt(InvokeStmt stmt) {
-    Formula guard = evalInvokeExpr(stmt.getInvokeExpr());
-    return new Transitions(currentLabel(stmt), guard, fallthrougLabel());
-  }
-
-  // Refinement on immediate variables are not really helpful, thus we model switch as non-deterministic jumps.
-  // We model switch statements as non-deterministic jumps.
-  private Transitions transformSwitchStmt(SwitchStmt stmt) {
-    Unit def = stmt.getDefaultTarget();
-    Transitions ts = new Transitions(currentLabel(stmt), targetLabel(def));
-    for (Unit target : stmt.getTargets()) {
-      ts.add(new Transition(currentLabel(stmt), targetLabel(target)));
-    }
-    return ts;
-  }
-
-  private Transitions transformReturnStmt(Stmt stmt) {
-    return Transitions.empty();
-  }
-
-  private Transitions transformIdentityStmt(Stmt stmt) {
-    if (hasDefinedLabel(stmt)) {
-      return new Transitions(currentLabel(stmt), fallthrougLabel());
-    } else {
-      return Transitions.empty();
-    }
+  private Formula transformInvokeStmt(InvokeStmt stmt) {
+    return evalInvokeExpr(stmt.getInvokeExpr());
   }
 
   private AExpr transformImmediate(Immediate imm) {
@@ -619,10 +666,10 @@ public final class Grumpy {
       return Val.zero();
     }
     if (con instanceof IntConstant) {
-      return new Val(((IntConstant) con).value);
+      return Val.of(((IntConstant) con).value);
     }
     if (con instanceof LongConstant) {
-      return new Val(((LongConstant) con).value);
+      return Val.of(((LongConstant) con).value);
     }
     // ClassConstant, MethodHandle, StringConstant, RealConstant
     return transformUndefinedValue();
@@ -684,9 +731,9 @@ public final class Grumpy {
     Formula getInstanceField(Local local, InstanceFieldRef ref) {
       AExpr x = pvar(local);
       AExpr y = var(ref.getBase());
-      return hasIntType(ref.getField())
+      return hasIntType(ref.getFieldRef().type())
           ? atom(gt(x, neg(y)), lt(x, y))
-          : hasRefType(ref.getField())
+          : hasRefType(ref.getFieldRef().type())
               ? atom(nonnegative(x), lt(x, y))
               : assignUndefined(local);
     }
@@ -720,7 +767,7 @@ public final class Grumpy {
     Formula getInstanceField(Local local, InstanceFieldRef ref) {
       AExpr x = pvar(local);
       AExpr y = var(ref.getBase());
-      return hasRefType(ref.getField())
+      return hasRefType(ref.getFieldRef().type())
           ? atom(ge(x, Val.zero), lt(x, y))
           : assignUndefined(local);
     }
@@ -733,7 +780,7 @@ public final class Grumpy {
       Var ivar = var(base);
       Var ovar = pvar(base);
       return hasRefType(imm)
-          ? atom(gt(ovar, Val.zero), le(ovar, new Add(ivar, transformImmediate(imm))))
+          ? atom(gt(ovar, Val.zero), le(ovar, Add.of(ivar, transformImmediate(imm))))
           : atom(gt(ovar, Val.zero), as(ovar, ivar));
     }
   }
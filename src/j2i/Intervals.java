@@ -0,0 +1,332 @@
+package j2i;
+
+import java.util.*;
+
+// Interval (box) analysis of the transitions: lower and upper bounds of each variable of the domain at each location.
+//
+// A forward abstract interpretation over the location graph, starting with unknown values at the start location. The
+// bounds after a clause are obtained by propagating the bounds before it through its linear constraints (cf
+// Box.propagate); a variable without post-variable keeps its bounds, as refined by the clause. At cut points the
+// bounds are widened, ie bounds that still grow are dropped; afterwards a few iterations without widening recover
+// bounds established by loop conditions, eg i <= 10 for a loop while (i < 10). The result is used to drop transitions
+// from unreachable locations and clauses that are infeasible wrt the bounds, and to add the bounds at cut points (loop
+// headers) to the outgoing clauses as invariants, for the variables that the clause reads.
+// Bounds are longs; Long.MIN_VALUE and Long.MAX_VALUE stand for no bound, and on overflow a bound is dropped.
+final class Intervals {
+
+  private static final long NONE_LO = Long.MIN_VALUE;
+  private static final long NONE_HI = Long.MAX_VALUE;
+  // iterations without widening after the fixpoint
+  private static final int NARROWING = 2;
+  // rounds of propagation through the constraints of a clause
+  private static final int ROUNDS = 3;
+
+  private Intervals() {
+  }
+
+  // infeasible clauses are counted in stats
+  static Transitions apply(Domain domain, Transitions transitions, MethodStats stats) {
+    if (transitions.isEmpty()) {
+      return transitions;
+    }
+    LocationGraph g = transitions.graph();
+    VarIndex index = domain.index();
+    long[][] boxes = analyse(g, index);
+    BitSet cut = g.cutPoints();
+
+    Transitions result = new Transitions();
+    for (int e = 0; e < g.edges(); e++) {
+      Transition t = g.transition(e);
+      long[] box = boxes[g.source(e)];
+      if (box == null) {
+        stats.pruned(t.getGuard().size());
+        continue;
+      }
+      if (t.getGuard().isEmpty()) {
+        result.add(t);
+        continue;
+      }
+      Formula guard = Formula.empty();
+      for (Clause clause : t.getGuard()) {
+        if (post(clause, box, index) == null) {
+          continue;
+        }
+        if (cut.get(g.source(e))) {
+          clause = strengthen(clause, box, index);
+        }
+        guard.dnf.add(clause);
+      }
+      stats.pruned(t.getGuard().size() - guard.size());
+      if (!guard.isEmpty()) {
+        result.add(new Transition(t.getFrom(), guard, t.getLower(), t.getUpper(), t.getTo()));
+      }
+    }
+    return result;
+  }
+
+  // The bounds at the entry of each location; null if the location is unreachable. The bounds of the variable with
+  // position k in the domain (cf VarIndex) are box[2k] and box[2k+1].
+  private static long[][] analyse(LocationGraph g, VarIndex index) {
+    int locations = g.locations();
+    long[][] boxes = new long[locations][];
+    boxes[0] = top(index.size());
+    BitSet cut = g.cutPoints();
+    Deque<Integer> worklist = new ArrayDeque<>();
+    BitSet queued = new BitSet(locations);
+    worklist.add(0);
+    queued.set(0);
+    while (!worklist.isEmpty()) {
+      int l = worklist.poll();
+      queued.clear(l);
+      for (int i = 0; i < g.outDegree(l); i++) {
+        int e = g.outEdge(l, i);
+        int w = g.target(e);
+        long[] out = post(g.transition(e), boxes[l], index);
+        long[] old = boxes[w];
+        long[] joined = join(old, out);
+        if (old != null && cut.get(w)) {
+          joined = widen(old, joined);
+        }
+        if (!Arrays.equals(old, joined)) {
+          boxes[w] = joined;
+          if (!queued.get(w)) {
+            queued.set(w);
+            worklist.add(w);
+          }
+        }
+      }
+    }
+    for (int k = 0; k < NARROWING; k++) {
+      long[][] next = new long[locations][];
+      next[0] = top(index.size());
+      for (int e = 0; e < g.edges(); e++) {
+        int w = g.target(e);
+        next[w] = join(next[w], post(g.transition(e), boxes[g.source(e)], index));
+      }
+      boxes = next;
+    }
+    return boxes;
+  }
+
+  private static long[] top(int n) {
+    long[] box = new long[2 * n];
+    for (int k = 0; k < n; k++) {
+      box[2 * k] = NONE_LO;
+      box[2 * k + 1] = NONE_HI;
+    }
+    return box;
+  }
+
+  private static long[] join(long[] b1, long[] b2) {
+    if (b1 == null) {
+      return b2;
+    }
+    if (b2 == null) {
+      return b1;
+    }
+    long[] box = new long[b1.length];
+    for (int i = 0; i < box.length; i += 2) {
+      box[i] = Math.min(b1[i], b2[i]);
+      box[i + 1] = Math.max(b1[i + 1], b2[i + 1]);
+    }
+    return box;
+  }
+
+  private static long[] widen(long[] old, long[] box) {
+    long[] widened = box.clone();
+    for (int i = 0; i < box.length; i += 2) {
+      if (box[i] < old[i]) {
+        widened[i] = NONE_LO;
+      }
+      if (box[i + 1] > old[i + 1]) {
+        widened[i + 1] = NONE_HI;
+      }
+    }
+    return widened;
+  }
+
+  // the bounds after a transition; null if the source is unreachable or all clauses are infeasible
+  private static long[] post(Transition t, long[] box, VarIndex index) {
+    if (box == null || t.getGuard().isEmpty()) {
+      return box;
+    }
+    long[] out = null;
+    for (Clause clause : t.getGuard()) {
+      out = join(out, post(clause, box, index));
+    }
+    return out;
+  }
+
+  // the bounds after a clause; null if the clause is infeasible wrt the bounds before
+  private static long[] post(Clause clause, long[] box, VarIndex index) {
+    Box b = new Box(clause, box, index);
+    if (!b.propagate()) {
+      return null;
+    }
+    long[] out = box.clone();
+    for (int k = 0; k < b.ids.length; k++) {
+      int id = b.ids[k];
+      int p = index.position(id & ~1);
+      if (p < 0) {
+        continue;
+      }
+      // the post-variable determines the value after the clause if it occurs, the pre-variable otherwise
+      if (Var.isPostId(id) || !Var.contains(b.ids, id | 1)) {
+        out[2 * p] = b.lo[k];
+        out[2 * p + 1] = b.hi[k];
+      }
+    }
+    return out;
+  }
+
+  // adds the bounds of the variables read by the clause
+  private static Clause strengthen(Clause clause, long[] box, VarIndex index) {
+    List<Constraint> cs = new ArrayList<>();
+    for (int i : clause.variables()) {
+      int p = Var.isPostId(i) ? -1 : index.position(i);
+      if (p < 0) {
+        continue;
+      }
+      Var v = Var.byId(i);
+      long lo = box[2 * p];
+      long hi = box[2 * p + 1];
+      if (lo != NONE_LO) {
+        cs.add(Constraint.ge(v, Val.of(lo)));
+      }
+      if (hi != NONE_HI) {
+        cs.add(Constraint.le(v, Val.of(hi)));
+      }
+    }
+    if (cs.isEmpty()) {
+      return clause;
+    }
+    Clause c = clause.copy();
+    c.addAll(cs.toArray(new Constraint[cs.size()]));
+    c.simplify();
+    return c;
+  }
+
+  // the bounds of the variables of a clause
+  private static final class Box {
+
+    final Clause clause;
+    // the ids of the variables of the clause in ascending order, and their bounds
+    final int[] ids;
+    final long[] lo;
+    final long[] hi;
+
+    Box(Clause clause, long[] box, VarIndex index) {
+      this.clause = clause;
+      this.ids = clause.variables();
+      this.lo = new long[this.ids.length];
+      this.hi = new long[this.ids.length];
+      for (int k = 0; k < this.ids.length; k++) {
+        int id = this.ids[k];
+        int p = Var.isPostId(id) ? -1 : index.position(id);
+        this.lo[k] = p >= 0 ? box[2 * p] : NONE_LO;
+        this.hi[k] = p >= 0 ? box[2 * p + 1] : NONE_HI;
+      }
+    }
+
+    private int position(int id) {
+      return Arrays.binarySearch(this.ids, id);
+    }
+
+    // refines the bounds by the linear constraints of the clause; returns false if the clause is infeasible
+    boolean propagate() {
+      for (int r = 0; r < ROUNDS; r++) {
+        boolean changed = false;
+        for (Constraint c : this.clause) {
+          if (!(c instanceof LinearConstraint)) {
+            continue;
+          }
+          LinearConstraint lc = (LinearConstraint) c;
+          if (lc.terms() == 0) {
+            if (lc.op == Constraint.EQ ? lc.constant() != 0 : lc.constant() > 0) {
+              return false;
+            }
+            continue;
+          }
+          for (int j = 0; j < lc.terms(); j++) {
+            changed |= refine(lc, j);
+          }
+          for (int j = 0; j < lc.terms(); j++) {
+            int k = this.position(lc.id(j));
+            if (this.lo[k] > this.hi[k]) {
+              return false;
+            }
+          }
+        }
+        if (!changed) {
+          break;
+        }
+      }
+      return true;
+    }
+
+    // bounds of the j-th variable of  a_1*x_1 + ... + c  op  0
+    private boolean refine(LinearConstraint lc, int j) {
+      // a_j*x_j <= -(c + min(rest)), and for equations also a_j*x_j >= -(c + max(rest))
+      long min = lc.constant();
+      long max = lc.constant();
+      for (int i = 0; i < lc.terms(); i++) {
+        if (i != j) {
+          int k = this.position(lc.id(i));
+          min = sum(min, product(lc.coeff(i), this.lo[k], this.hi[k], true), NONE_LO);
+          max = sum(max, product(lc.coeff(i), this.lo[k], this.hi[k], false), NONE_HI);
+        }
+      }
+      long a = lc.coeff(j);
+      int k = this.position(lc.id(j));
+      boolean changed = false;
+      if (min != NONE_LO) {
+        changed |= a > 0 ? upper(k, Math.floorDiv(-min, a)) : lower(k, -Math.floorDiv(-min, -a));
+      }
+      if (lc.op == Constraint.EQ && max != NONE_HI) {
+        changed |= a > 0 ? lower(k, -Math.floorDiv(max, a)) : upper(k, Math.floorDiv(max, -a));
+      }
+      return changed;
+    }
+
+    private boolean lower(int k, long v) {
+      if (v > this.lo[k]) {
+        this.lo[k] = v;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean upper(int k, long v) {
+      if (v < this.hi[k]) {
+        this.hi[k] = v;
+        return true;
+      }
+      return false;
+    }
+
+    // the minimum (or maximum) of a*x for x in [lo, hi]; none if unbounded or on overflow
+    private static long product(long a, long lo, long hi, boolean minimum) {
+      long none = minimum ? NONE_LO : NONE_HI;
+      long bound = (a > 0) == minimum ? lo : hi;
+      if (bound == NONE_LO || bound == NONE_HI) {
+        return none;
+      }
+      try {
+        return Math.multiplyExact(a, bound);
+      } catch (ArithmeticException e) {
+        return none;
+      }
+    }
+
+    private static long sum(long x, long y, long none) {
+      if (x == none || y == none) {
+        return none;
+      }
+      try {
+        return Math.addExact(x, y);
+      } catch (ArithmeticException e) {
+        return none;
+      }
+    }
+  }
+}
@@ -7,17 +7,69 @@ final public class KoAT implements PrettyPrint {
 
   private Domain domain;
   private Transitions transitions;
+  private boolean constantCalls = true;
+  private MethodStats stats = new MethodStats();
 
   public KoAT(Domain domain, Transitions transitions) {
     this.domain = domain;
     this.transitions = transitions;
   }
 
+  // constantCalls: all method calls of the problem have constant (upper) time complexity
+  KoAT(Domain domain, Transitions transitions, boolean constantCalls, MethodStats stats) {
+    this(domain, transitions);
+    this.constantCalls = constantCalls;
+    this.stats = stats;
+  }
+
+  // The problem has constant complexity if the transitions are acyclic and all method calls are constant, thus we do
+  // not need a solver.
+  public boolean isTriviallyConstant() {
+    return this.constantCalls && this.transitions.isAcyclic();
+  }
+
   public KoAT compact() {
-    this.transitions = Transitions.compact(this.transitions);
+    this.transitions = Transitions.compact(this.transitions, this.stats);
     return this;
   }
 
+  // contracts all locations except cut points, cf Transitions.chain
+  public KoAT chain(int budget) {
+    this.transitions = Transitions.chain(this.transitions, budget, this.stats);
+    return this;
+  }
+
+  // keeps the constraints that loop conditions and the cost of calls depend on, cf Slicing
+  public KoAT slice(Set<Var> seeds) {
+    this.transitions = Slicing.apply(this.domain, this.transitions, seeds);
+    return this;
+  }
+
+  // drops unreachable transitions and adds bounds of variables at loop headers, cf Intervals
+  public KoAT intervals() {
+    this.transitions = Intervals.apply(this.domain, this.transitions, this.stats);
+    return this;
+  }
+
+  // propagates copies and constants and removes dead variables, cf Propagation; the domain is copied as it is shared
+  // with the translation
+  public KoAT propagate() {
+    this.domain = this.domain.copy();
+    this.transitions = Propagation.apply(this.domain, this.transitions, this.stats);
+    return this;
+  }
+
+  // eliminates assignments to dead variables and removes variables that are live nowhere, cf Liveness
+  public KoAT liveness() {
+    this.transitions = Liveness.apply(this.domain, this.transitions);
+    return this;
+  }
+
+  // statistics of the translation
+  public MethodStats stats() {
+    return this.stats;
+  }
+
   public StringBuilder domain2String() {
     StringBuilder b = new StringBuilder();
     b.append("(");
@@ -53,16 +105,15 @@ final public class KoAT implements PrettyPrint {
     return b;
   }
 
-  @Override
-  public String pp() {
-    StringBuilder b = new StringBuilder();
-    b.append("(GOAL COMPLEXITY)\n");
+  // Writes the problem rule by rule; in contrast to pp() the whole text is not built in memory.
+  public void print(Writer out) throws IOException {
+    out.write("(GOAL COMPLEXITY)\n");
     String s = this.transitions.isEmpty() ? "start" : this.transitions.iterator().next().getFrom().toString();
-    b.append("(STARTTERM (FUNCTIONSYMBOLS " + s + "))\n");
-    b.append("(VAR )\n");
-    b.append("(RULES\n");
+    out.write("(STARTTERM (FUNCTIONSYMBOLS " + s + "))\n");
+    out.write("(VAR )\n");
+    out.write("(RULES\n");
     if (this.transitions.isEmpty()) {
-      b.append("start(x) -> end(x)\n");
+      out.write("start(x) -> end(x)\n");
     }
 
     StringBuilder lhs = this.domain2String();
@@ -74,20 +125,40 @@ final public class KoAT implements PrettyPrint {
       r.append(" -> ");
       r.append(t.getTo().toString());
       if (t.getGuard().isEmpty()) {
-        b.append(r);
-        b.append(domain2String());
-        b.append('\n');
+        out.append(r);
+        out.append(domain2String());
+        out.write('\n');
       } else {
         for (Clause c : t.getGuard()) {
-          b.append(r);
-          b.append(postdomain2String(c));
-          b.append(" :|: ");
-          b.append(c.pp());
-          b.append('\n');
+          out.append(r);
+          out.append(postdomain2String(c));
+          if (c.size() > 0) {
+            out.write(" :|: ");
+            out.write(c.pp());
+          }
+          out.write('\n');
         }
       }
     }
-    b.append(")\n");
+    out.write(")\n");
+  }
+
+  // Writes the problem in a normal form where labels and variables are renamed in order of their first occurrence.
+  // Problems that are equal up to the names of variables and labels have the same normal form.
+  public void printCanonical(Writer out) throws IOException {
+    Writer canonical = new CanonicalWriter(out);
+    this.print(canonical);
+    canonical.flush();
+  }
+
+  @Override
+  public String pp() {
+    StringWriter b = new StringWriter();
+    try {
+      this.print(b);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
     return b.toString();
   }
 
@@ -97,4 +168,100 @@ final public class KoAT implements PrettyPrint {
   }
 }
 
+// Renames the symbols (labels and variables) of a problem text in order of their first occurrence.
+//
+// A symbol is a maximal sequence of characters that are not delimiters and do not start with a digit. The keywords of
+// the problem format are not renamed.
+final class CanonicalWriter extends Writer {
 
+  private static final boolean[] delimiters = new boolean[128];
+  private static final Set<String> keywords = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+      "GOAL", "COMPLEXITY", "STARTTERM", "FUNCTIONSYMBOLS", "VAR", "RULES")));
+
+  static {
+    for (char c : " \t\r\n(),':&|=<>+-*".toCharArray()) {
+      delimiters[c] = true;
+    }
+  }
+
+  private final Writer out;
+  private final Map<String, String> names = new HashMap<>();
+  private final StringBuilder symbol = new StringBuilder();
+
+  CanonicalWriter(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    this.write(new String(cbuf, off, len));
+  }
+
+  // runs of delimiters are passed on in one piece
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    int end = off + len;
+    int i = off;
+    while (i < end) {
+      int j = i;
+      while (j < end && !isDelimiter(str.charAt(j))) {
+        j++;
+      }
+      this.symbol.append(str, i, j);
+      if (j == end) {
+        return;
+      }
+      this.flushSymbol();
+      i = j;
+      while (j < end && isDelimiter(str.charAt(j))) {
+        j++;
+      }
+      this.out.write(str, i, j - i);
+      i = j;
+    }
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    if (!isDelimiter(c)) {
+      this.symbol.append((char) c);
+    } else {
+      this.flushSymbol();
+      this.out.write(c);
+    }
+  }
+
+  private static boolean isDelimiter(int c) {
+    return c < delimiters.length && delimiters[c];
+  }
+
+  private void flushSymbol() throws IOException {
+    if (this.symbol.length() == 0) {
+      return;
+    }
+    String s = this.symbol.toString();
+    this.symbol.setLength(0);
+    if (Character.isDigit(s.charAt(0)) || keywords.contains(s)) {
+      this.out.write(s);
+    } else {
+      String name = this.names.get(s);
+      if (name == null) {
+        name = "x" + this.names.size();
+        this.names.put(s, name);
+      }
+      this.out.write(name);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    this.flushSymbol();
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.flush();
+    this.out.close();
+  }
+}
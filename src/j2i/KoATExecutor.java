@@ -2,95 +2,537 @@ package j2i;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
+// Runs KoAT on ITS problems.
+//
+// Problems are either solved synchronously in the calling thread (solve, execute) or submitted to a pool of worker
+// threads (submit). At most 'concurrency' koat processes run at the same time; submit blocks if more than twice as
+// many problems are pending, so that translation can not run arbitrarily far ahead of the solver.
+//
+// Each invocation has a (Java-side) deadline. When it expires koat and all its children (eg the smt solver) are
+// killed and the answer is TIMEOUT. Temporary problem files are deleted unless keepFiles is set.
+//
+// With Input.PIPE the problem is streamed into the stdin of koat, which reads it via /dev/stdin. If the solver terminates
+// with an error and without an answer the problem is solved again via a temporary file. Only if the file then gives an
+// answer, ie the solver can not read from a pipe, all further problems use files; a solver that crashes or exceeds the
+// memory limit on a single problem does not switch the run to files.
+//
+// With a ResultCache, koat is only started if the cache has no answer for the problem and options.
+//
+// Trivially constant problems (cf KoAT.isTriviallyConstant) are answered without koat.
+//
+// With a portfolio of (more than one) configurations, koat is started with each configuration (appended to the common
+// options) at the same time. The first definite answer wins, the remaining processes are killed. The problem is
+// written to a single temporary file shared by all configurations. Wins and the time to answer are recorded per
+// configuration.
+//
+// Submitted problems that are equal up to the names of variables and labels (cf KoAT.printCanonical) are solved only
+// once per executor; all submissions share the answer of the first one. Like in the ResultCache only definite answers
+// are kept, ie a problem that failed or timed out is solved again when it is submitted again. The number of kept
+// answers is limited; when the limit is reached the answered problems are dropped.
 final public class KoATExecutor {
 
+  public enum Input { FILE, PIPE }
+
+  // reads the answers of a portfolio and writes problems into pipes; threads are reused across problems
+  private static final ExecutorService readers = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "koat-reader");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private static final ScheduledThreadPoolExecutor reaper = new ScheduledThreadPoolExecutor(1, r -> {
+    Thread t = new Thread(r, "koat-reaper");
+    t.setDaemon(true);
+    return t;
+  });
+
+  static {
+    reaper.setRemoveOnCancelPolicy(true);
+  }
+
   private KoAT problem;
   private String[] options = new String[0];
 
+  private final int concurrency;
+  private final Semaphore pending;
+  private ExecutorService workers;
+
+  private long timeout = 0;
+  private long memoryLimit = 0;
+  private boolean keepFiles = false;
+  private Input input = Input.FILE;
+  private volatile boolean pipeFailed = false;
+  private ResultCache cache;
+  private List<Configuration> portfolio = new ArrayList<>();
+
+  private static final int MAX_SUBMITTED = 10000;
+
+  private final ConcurrentMap<String, CompletableFuture<Answer>> submitted = new ConcurrentHashMap<>();
+  private final AtomicLong unique = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+  private final AtomicLong trivial = new AtomicLong();
+
   public KoATExecutor(KoAT problem) {
-    this.problem = problem;
+    this(problem, new String[0]);
   }
 
   public KoATExecutor(KoAT problem, String... options) {
+    this(Runtime.getRuntime().availableProcessors(), options);
     this.problem = problem;
+  }
+
+  public KoATExecutor(String... options) {
+    this(Runtime.getRuntime().availableProcessors(), options);
+  }
+
+  public KoATExecutor(int concurrency, String... options) {
     this.options = options;
+    this.concurrency = Math.max(1, concurrency);
+    this.pending = new Semaphore(2 * this.concurrency);
+  }
+
+  // wall-clock limit per invocation in seconds; 0 means no limit
+  public KoATExecutor withTimeout(long seconds) {
+    this.timeout = seconds;
+    return this;
+  }
+
+  // limit of the virtual memory of koat (and its children) in megabytes; 0 means no limit
+  public KoATExecutor withMemoryLimit(long megabytes) {
+    this.memoryLimit = megabytes;
+    return this;
+  }
+
+  // keep the temporary problem files, eg for debugging
+  public KoATExecutor keepFiles(boolean keep) {
+    this.keepFiles = keep;
+    return this;
+  }
+
+  public KoATExecutor withInput(Input input) {
+    this.input = input;
+    return this;
+  }
+
+  // a single configuration is simply appended to the common options
+  public KoATExecutor withPortfolio(List<String[]> configurations) {
+    if (configurations.size() == 1) {
+      this.options = concat(this.options, configurations.get(0));
+      return this;
+    }
+    this.portfolio = new ArrayList<>();
+    for (String[] configuration : configurations) {
+      this.portfolio.add(new Configuration(configuration));
+    }
+    return this;
+  }
+
+  // one line per configuration of the portfolio: wins, runs and average time to answer of wins
+  public String portfolioStatistics() {
+    StringBuilder b = new StringBuilder();
+    for (Configuration c : this.portfolio) {
+      b.append(c.pp()).append('\n');
+    }
+    return b.toString();
+  }
+
+  public KoATExecutor withCache(ResultCache cache) {
+    this.cache = cache;
+    return this;
   }
 
   public String execute() {
+    return solve(this.problem).toString();
+  }
+
+  public CompletableFuture<Answer> submit(KoAT problem) {
+    if (problem.isTriviallyConstant()) {
+      this.trivial.incrementAndGet();
+      return CompletableFuture.completedFuture(Answer.CONSTANT);
+    }
+    String key = ResultCache.key(problem, this.allOptions());
+    if (this.submitted.size() >= MAX_SUBMITTED) {
+      this.submitted.values().removeIf(CompletableFuture::isDone);
+    }
+    CompletableFuture<Answer> answer = new CompletableFuture<>();
+    CompletableFuture<Answer> known = this.submitted.putIfAbsent(key, answer);
+    if (known != null) {
+      this.duplicates.incrementAndGet();
+      return known;
+    }
+    this.unique.incrementAndGet();
+
+    this.pending.acquireUninterruptibly();
     try {
+      CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+              return solve(problem, key);
+            } finally {
+              problem.stats().solver(System.nanoTime() - start);
+            }
+          }, workers())
+          .whenComplete((a, e) -> {
+            this.pending.release();
+            if (e != null || !a.isDefinite()) {
+              this.submitted.remove(key, answer);
+            }
+            if (e != null) {
+              answer.completeExceptionally(e);
+            } else {
+              answer.complete(a);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      this.pending.release();
+      this.submitted.remove(key);
+      this.unique.decrementAndGet();
+      throw e;
+    }
+    return answer;
+  }
+
+  // number of submitted problems
+  public long submissions() {
+    return this.unique.get() + this.duplicates.get() + this.trivial.get();
+  }
 
-      File tmp = File.createTempFile("method", ".koat");
-      // TODO: add option; keep file
-      // add some info to KoAT, eg name of method
-      // tmp.deleteOnExit();
+  // number of submitted problems that have been answered without solver, cf KoAT.isTriviallyConstant
+  public long trivial() {
+    return this.trivial.get();
+  }
+
+  // number of submitted problems that have been answered by an equivalent problem, ie the saved solver calls
+  public long duplicates() {
+    return this.duplicates.get();
+  }
 
-      try (PrintWriter out = new PrintWriter(tmp.getAbsoluteFile())) {
-        out.println(this.problem.pp());
+  // Waits until all submitted problems are solved; the executor does not accept new problems afterwards.
+  public void shutdown() {
+    ExecutorService ws;
+    synchronized (this) {
+      ws = this.workers;
+      this.workers = null;
+    }
+    if (ws == null) {
+      return;
+    }
+    ws.shutdown();
+    try {
+      while (!ws.awaitTermination(1, TimeUnit.MINUTES)) {
       }
-      String[] command = new String[this.options.length + 2];
-      command[0] = "koat";
-      command[command.length - 1] = tmp.getAbsolutePath();
-      System.arraycopy(this.options, 0, command, 1, this.options.length);
-      Process koat = new ProcessBuilder(command).start();
-      BufferedReader input = new BufferedReader(new InputStreamReader(koat.getInputStream()));
-      BufferedReader error = new BufferedReader(new InputStreamReader(koat.getErrorStream()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
 
-      Handler h = new Handler(input);
-      Thread t1 = new Thread(h);
+  private synchronized ExecutorService workers() {
+    if (this.workers == null) {
+      AtomicInteger id = new AtomicInteger();
+      this.workers = Executors.newFixedThreadPool(this.concurrency, r -> {
+        Thread t = new Thread(r, "koat-" + id.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return this.workers;
+  }
+
+  public Answer solve(KoAT problem) {
+    if (problem.isTriviallyConstant()) {
+      return Answer.CONSTANT;
+    }
+    return solve(problem, this.cache != null ? ResultCache.key(problem, this.allOptions()) : null);
+  }
+
+  private Answer solve(KoAT problem, String key) {
+    if (this.cache == null) {
+      return solveUncached(problem);
+    }
+    Optional<Answer> cached = this.cache.get(key);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
+    Answer answer = solveUncached(problem);
+    this.cache.put(key, answer);
+    return answer;
+  }
 
-      Thread t2 = new Thread(new Runnable() {
-        @Override
-        public void run() {
+  private Answer solveUncached(KoAT problem) {
+    try {
+      if (this.portfolio.size() > 1) {
+        return solveWithPortfolio(problem);
+      }
+      if (this.input == Input.PIPE && !this.keepFiles && !this.pipeFailed) {
+        Optional<Answer> answer = solveViaPipe(problem);
+        if (answer.isPresent()) {
+          return answer.get();
+        }
+        answer = awaitViaFile(problem);
+        this.pipeFailed = answer.isPresent();
+        return answer.orElse(Answer.MAYBE);
+      }
+      return solveViaFile(problem);
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return Answer.MAYBE;
+  }
+
+  private Answer solveViaFile(KoAT problem) throws IOException, InterruptedException {
+    return awaitViaFile(problem).orElse(Answer.MAYBE);
+  }
+
+  // returns empty if koat terminates abnormally without an answer
+  private Optional<Answer> awaitViaFile(KoAT problem) throws IOException, InterruptedException {
+    File tmp = writeProblem(problem);
+    try {
+      Child koat = Child.start(command(this.options, tmp.getAbsolutePath()), this.memoryLimit);
+      koat.process.getOutputStream().close();
+      return await(koat);
+    } finally {
+      if (!this.keepFiles) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private Answer solveWithPortfolio(KoAT problem) throws IOException, InterruptedException {
+    File tmp = writeProblem(problem);
+    List<Child> children = new ArrayList<>();
+    try {
+      BlockingQueue<Map.Entry<Configuration, Answer>> answers = new LinkedBlockingQueue<>();
+      long start = System.nanoTime();
+      for (Configuration configuration : this.portfolio) {
+        Child koat = Child.start(
+            command(concat(this.options, configuration.options), tmp.getAbsolutePath()), this.memoryLimit);
+        koat.process.getOutputStream().close();
+        children.add(koat);
+        configuration.runs.incrementAndGet();
+        readers.execute(() -> {
+          Answer answer = Answer.MAYBE;
           try {
-            String line;
-            while ((line = error.readLine()) != null) {
-              System.err.println(line);
-            }
-            error.close();
+            answer = await(koat).orElse(Answer.MAYBE);
           } catch (IOException e) {
             e.printStackTrace();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
           }
+          answers.add(new AbstractMap.SimpleImmutableEntry<>(configuration, answer));
+        });
+      }
+
+      Answer result = Answer.TIMEOUT;
+      for (int i = 0; i < children.size(); i++) {
+        Map.Entry<Configuration, Answer> answer = answers.take();
+        if (answer.getValue().isDefinite()) {
+          answer.getKey().wins.incrementAndGet();
+          answer.getKey().winNanos.addAndGet(System.nanoTime() - start);
+          return answer.getValue();
         }
-      });
+        result = answer.getValue().isTimeout() ? result : answer.getValue();
+      }
+      return result;
 
-      t1.start();
-      t2.start();
+    } finally {
+      for (Child koat : children) {
+        if (koat.process.isAlive()) {
+          koat.kill();
+        }
+      }
+      if (!this.keepFiles) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private File writeProblem(KoAT problem) throws IOException {
+    File tmp = File.createTempFile("method", ".koat");
+    try (Writer out = new BufferedWriter(new FileWriter(tmp))) {
+      problem.print(out);
+    }
+    return tmp;
+  }
+
+  // Returns empty if the solver could not read the problem from the pipe. The problem is written by a reader thread
+  // while the deadline is already running, so that a solver that stops reading is killed like any other.
+  private Optional<Answer> solveViaPipe(KoAT problem) throws IOException, InterruptedException {
+    Child koat = Child.start(command(this.options, "/dev/stdin"), this.memoryLimit);
+    Future<?> written = readers.submit(() -> {
+      try (Writer out = new BufferedWriter(new OutputStreamWriter(koat.process.getOutputStream()))) {
+        problem.print(out);
+      } catch (IOException e) {
+        // the solver terminated (or was killed) before reading the whole problem
+      }
+    });
+    try {
+      return await(koat);
+    } finally {
+      // koat is not alive anymore, thus the write ends
       try {
-        t1.join();
-        t2.join();
-        return h.getAnswer();
-      } catch (InterruptedException e) {
+        written.get();
+      } catch (ExecutionException e) {
         e.printStackTrace();
       }
-
-    } catch (IOException e) {
-      e.printStackTrace();
     }
-    return "MAYBE";
   }
 
-  class Handler implements Runnable {
+  private static String[] command(String[] options, String file) {
+    String[] command = new String[options.length + 2];
+    command[0] = "koat";
+    command[command.length - 1] = file;
+    System.arraycopy(options, 0, command, 1, options.length);
+    return command;
+  }
+
+  private static String[] concat(String[] xs, String[] ys) {
+    String[] zs = Arrays.copyOf(xs, xs.length + ys.length);
+    System.arraycopy(ys, 0, zs, xs.length, ys.length);
+    return zs;
+  }
 
-    BufferedReader input;
-    private String answer;
+  // the options of all configurations; answers depend on them
+  public String[] options() {
+    return allOptions().clone();
+  }
 
-    public Handler(BufferedReader input) {
-      this.input = input;
+  private String[] allOptions() {
+    String[] options = this.options;
+    for (Configuration configuration : this.portfolio) {
+      options = concat(concat(options, new String[]{";"}), configuration.options);
     }
+    return options;
+  }
 
-    public String getAnswer() {
-      return this.answer != null ? this.answer : "MAYBE";
+  // returns empty if koat terminates abnormally without an answer
+  private Optional<Answer> await(Child koat) throws IOException, InterruptedException {
+    ScheduledFuture<?> deadline = this.timeout > 0
+        ? reaper.schedule(koat::kill, this.timeout, TimeUnit.SECONDS)
+        : null;
+    try {
+      String answer = koat.readAnswer();
+      int status = koat.process.waitFor();
+      if (answer == null && koat.killed) {
+        return Optional.of(Answer.TIMEOUT);
+      }
+      if (answer == null && status != 0) {
+        return Optional.empty();
+      }
+      return Optional.of(Answer.of(answer));
+    } finally {
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+      if (koat.process.isAlive()) {
+        koat.kill();
+      }
+    }
+  }
+
+  // A configuration of a portfolio and its statistics.
+  private static final class Configuration implements PrettyPrint {
+
+    final String[] options;
+    final AtomicLong runs = new AtomicLong();
+    final AtomicLong wins = new AtomicLong();
+    final AtomicLong winNanos = new AtomicLong();
+
+    Configuration(String[] options) {
+      this.options = options;
     }
 
     @Override
-    public void run() {
-      try {
-        answer = input.readLine();
-        input.close();
+    public String pp() {
+      long w = this.wins.get();
+      return String.join(" ", this.options)
+          + ": wins " + w + "/" + this.runs.get()
+          + ", average time to answer " + (w > 0 ? this.winNanos.get() / w / 1000000 : 0) + "ms";
+    }
+  }
+
+  // A koat process started via a small shell wrapper. The wrapper reports its pid on the first line of stdout,
+  // applies the memory limit and then replaces itself with koat. If setsid is available koat is started as leader
+  // of a new process group, so that koat and all its children can be killed at once. Otherwise only koat itself is
+  // killed.
+  private static final class Child {
+
+    private static final boolean hasSetsid = onPath("setsid");
+
+    final Process process;
+    final BufferedReader output;
+    final String pid;
+    volatile boolean killed = false;
+
+    private Child(Process process, BufferedReader output, String pid) {
+      this.process = process;
+      this.output = output;
+      this.pid = pid;
+    }
+
+    static Child start(String[] command, long memoryLimit) throws IOException {
+      List<String> wrapper = new ArrayList<>();
+      if (hasSetsid) {
+        wrapper.add("setsid");
+      }
+      wrapper.add("/bin/sh");
+      wrapper.add("-c");
+      wrapper.add("echo $$; "
+          + (memoryLimit > 0 ? "ulimit -v " + memoryLimit * 1024 + " 2>/dev/null; " : "")
+          + "exec \"$0\" \"$@\"");
+      wrapper.addAll(Arrays.asList(command));
+
+      // stderr is passed through; stdout is read by the calling worker, no additional threads are necessary
+      Process process = new ProcessBuilder(wrapper)
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+      BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+      return new Child(process, output, output.readLine());
+    }
+
+    String readAnswer() throws IOException {
+      try (BufferedReader input = this.output) {
+        String answer = input.readLine();
+        while (input.readLine() != null) {
+        }
+        return answer;
       } catch (IOException e) {
-        e.printStackTrace();
+        if (this.killed) {
+          return null;
+        }
+        throw e;
+      }
+    }
+
+    void kill() {
+      this.killed = true;
+      if (hasSetsid && this.pid != null && this.pid.matches("\\d+")) {
+        try {
+          new ProcessBuilder("kill", "-KILL", "--", "-" + this.pid).start().waitFor();
+        } catch (IOException e) {
+          e.printStackTrace();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      this.process.destroyForcibly();
+    }
+
+    private static boolean onPath(String executable) {
+      String path = System.getenv("PATH");
+      if (path == null) {
+        return false;
+      }
+      for (String dir : path.split(File.pathSeparator)) {
+        if (new File(dir, executable).canExecute()) {
+          return true;
+        }
       }
+      return false;
     }
   }
 
@@ -0,0 +1,309 @@
+package j2i;
+
+import java.util.*;
+
+// A linear constraint  a_1*x_1 + ... + a_k*x_k + c  op  b_1*y_1 + ... + b_l*y_l + d  over primitive arrays.
+//
+// ids and coeffs hold the terms of the lhs in [0, split) and of the rhs in [split, ids.length); the terms of each side
+// are ordered like the monomials of its polynomial (cf Poly), such that pp prints the normal form of each side without
+// building expressions. Renaming of variables (as used for composition) works on the arrays; other substitutions go
+// through expressions.
+// Constraints are created in canonical form (cf Constraint.make), ie the rhs is 0 and op is LE or EQ. Additionally the
+// coefficients are divided by their gcd; for e <= 0 the constant is rounded up, which is valid over the integers.
+final class LinearConstraint extends Constraint {
+
+  private final int[] ids;
+  private final long[] coeffs;
+  private final int split;
+  private final long lconst;
+  private final long rconst;
+  private final int hash;
+
+  private LinearConstraint(byte op, int[] ids, long[] coeffs, int split, long lconst, long rconst) {
+    super(op);
+    this.ids = ids;
+    this.coeffs = coeffs;
+    this.split = split;
+    this.lconst = lconst;
+    this.rconst = rconst;
+    // structural (ids depend on the order of translation)
+    int h = 31 * (31 * (31 * op + split) + Long.hashCode(lconst)) + Long.hashCode(rconst);
+    for (int i = 0; i < ids.length; i++) {
+      h = 31 * (31 * h + Var.byId(ids[i]).hashCode()) + Long.hashCode(coeffs[i]);
+    }
+    this.hash = h;
+  }
+
+  // e op 0 in canonical form; returns null if e (in normal form) is not linear
+  static LinearConstraint of(byte op, AExpr e) {
+    Poly p;
+    try {
+      p = Poly.of(e);
+    } catch (ArithmeticException ex) {
+      return null;
+    }
+    if (!p.isLinear()) {
+      return null;
+    }
+    int n = p.terms().size();
+    int[] ids = new int[n];
+    long[] coeffs = new long[n];
+    long constant = 0;
+    int i = 0;
+    for (Map.Entry<Monomial, Long> t : p.terms()) {
+      if (t.getValue() == Long.MIN_VALUE) {
+        return null;
+      }
+      if (t.getKey().isOne()) {
+        constant = t.getValue();
+      } else {
+        ids[i] = t.getKey().var().id;
+        coeffs[i] = t.getValue();
+        i++;
+      }
+    }
+    if (constant == Long.MIN_VALUE) {
+      return null;
+    }
+    return canonical(op, Arrays.copyOf(ids, i), Arrays.copyOf(coeffs, i), constant);
+  }
+
+  // divides by the gcd of the coefficients and orients equations; the terms are expected to be ordered
+  private static LinearConstraint canonical(byte op, int[] ids, long[] coeffs, long constant) {
+    long g = 0;
+    for (long c : coeffs) {
+      g = gcd(g, Math.abs(c));
+    }
+    if (op == EQ && coeffs.length > 0 && coeffs[0] < 0) {
+      for (int i = 0; i < coeffs.length; i++) {
+        coeffs[i] = -coeffs[i];
+      }
+      constant = -constant;
+    }
+    if (g > 1 && (op == LE || constant % g == 0)) {
+      for (int i = 0; i < coeffs.length; i++) {
+        coeffs[i] /= g;
+      }
+      constant = -Math.floorDiv(-constant, g);
+    }
+    return new LinearConstraint(op, ids, coeffs, ids.length, constant, 0);
+  }
+
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  // the terms of the canonical form  coeff(0)*id(0) + ... + constant()  op  0
+  int terms() {
+    return this.ids.length;
+  }
+
+  int id(int i) {
+    return this.ids[i];
+  }
+
+  long coeff(int i) {
+    return this.coeffs[i];
+  }
+
+  long constant() {
+    return this.lconst;
+  }
+
+  @Override
+  AExpr lhs() {
+    return toAExpr(0, this.split, this.lconst);
+  }
+
+  @Override
+  AExpr rhs() {
+    return toAExpr(this.split, this.ids.length, this.rconst);
+  }
+
+  @Override
+  int[] computeVariables() {
+    if (this.ids.length == 0) {
+      return Var.none;
+    }
+    int[] vars = this.ids.clone();
+    return Arrays.copyOf(vars, Var.toSet(vars, vars.length));
+  }
+
+  @Override
+  Constraint substitute(Map<Var, AExpr> smap) {
+    int[] ids = null;
+    for (int i = 0; i < this.ids.length; i++) {
+      AExpr e = smap.get(Var.byId(this.ids[i]));
+      if (e == null) {
+        continue;
+      }
+      if (!(e instanceof Var)) {
+        return make(this.op, this.lhs().substitute(smap), this.rhs().substitute(smap));
+      }
+      if (ids == null) {
+        ids = this.ids.clone();
+      }
+      ids[i] = ((Var) e).id;
+    }
+    if (ids == null) {
+      return this;
+    }
+    try {
+      return constraints.intern(renamed(ids));
+    } catch (ArithmeticException e) {
+      return make(this.op, this.lhs().substitute(smap), this.rhs().substitute(smap));
+    }
+  }
+
+  // re-establishes the order of the terms after renaming; equal variables are merged
+  private LinearConstraint renamed(int[] ids) {
+    long[] coeffs = this.coeffs.clone();
+    int size = merge(ids, coeffs, 0, ids.length, 0);
+    return canonical(this.op, Arrays.copyOf(ids, size), Arrays.copyOf(coeffs, size), this.lconst);
+  }
+
+  // sorts the terms in [from, to) and writes the merged non-zero terms to [at, ...); returns the end of the result
+  private static int merge(int[] ids, long[] coeffs, int from, int to, int at) {
+    for (int i = from + 1; i < to; i++) {
+      int id = ids[i];
+      long coeff = coeffs[i];
+      int j = i - 1;
+      while (j >= from && Monomial.order.compare(Var.byId(ids[j]), Var.byId(id)) > 0) {
+        ids[j + 1] = ids[j];
+        coeffs[j + 1] = coeffs[j];
+        j--;
+      }
+      ids[j + 1] = id;
+      coeffs[j + 1] = coeff;
+    }
+    int k = at;
+    for (int i = from; i < to; i++) {
+      if (k > at && ids[k - 1] == ids[i]) {
+        long c = Math.addExact(coeffs[k - 1], coeffs[i]);
+        if (c == Long.MIN_VALUE) {
+          throw new ArithmeticException("coefficient out of range");
+        }
+        if (c == 0) {
+          k--;
+        } else {
+          coeffs[k - 1] = c;
+        }
+      } else {
+        ids[k] = ids[i];
+        coeffs[k] = coeffs[i];
+        k++;
+      }
+    }
+    return k;
+  }
+
+  // Adds lhs - rhs to row: the coefficient of variable id to the entry of its position in vars (a sorted set of ids
+  // that contains the variables of the constraint) and the constant to the last entry.
+  void row(int[] vars, long[] row) {
+    for (int i = 0; i < this.ids.length; i++) {
+      long c = i < this.split ? this.coeffs[i] : Math.negateExact(this.coeffs[i]);
+      int k = Arrays.binarySearch(vars, this.ids[i]);
+      row[k] = Math.addExact(row[k], c);
+    }
+    int k = row.length - 1;
+    row[k] = Math.addExact(row[k], Math.subtractExact(this.lconst, this.rconst));
+  }
+
+  // the expression of a side, cf Poly.toAExpr
+  private AExpr toAExpr(int from, int to, long constant) {
+    AExpr e = null;
+    for (int i = from; i < to; i++) {
+      Var v = Var.byId(this.ids[i]);
+      long c = this.coeffs[i];
+      AExpr t = Math.abs(c) == 1 ? v : Mul.of(Val.of(Math.abs(c)), v);
+      e = e == null ? (c < 0 ? Neg.of(t) : t) : (c < 0 ? Sub.of(e, t) : Add.of(e, t));
+    }
+    if (e == null) {
+      return Val.of(constant);
+    }
+    if (constant == 0) {
+      return e;
+    }
+    return constant < 0 ? Sub.of(e, Val.of(-constant)) : Add.of(e, Val.of(constant));
+  }
+
+  @Override
+  public String pp() {
+    StringBuilder b = new StringBuilder();
+    ppSide(b, 0, this.split, this.lconst);
+    b.append(' ').append(opString(this.op)).append(' ');
+    ppSide(b, this.split, this.ids.length, this.rconst);
+    return b.toString();
+  }
+
+  // prints a side like its expression, eg ((x + (2 * y)) - 1)
+  private void ppSide(StringBuilder b, int from, int to, long constant) {
+    int terms = to - from + (constant != 0 ? 1 : 0);
+    if (from == to) {
+      b.append(constant >= 0 ? Long.toString(constant) : "(" + constant + ")");
+      return;
+    }
+    for (int i = 1; i < terms; i++) {
+      b.append('(');
+    }
+    for (int i = from; i < to; i++) {
+      long c = this.coeffs[i];
+      if (i == from) {
+        if (c < 0) {
+          b.append("(-");
+          ppTerm(b, i, -c);
+          b.append(')');
+        } else {
+          ppTerm(b, i, c);
+        }
+      } else {
+        b.append(c < 0 ? " - " : " + ");
+        ppTerm(b, i, Math.abs(c));
+        b.append(')');
+      }
+    }
+    if (constant != 0) {
+      b.append(constant < 0 ? " - " : " + ").append(Math.abs(constant)).append(')');
+    }
+  }
+
+  private void ppTerm(StringBuilder b, int i, long c) {
+    if (c == 1) {
+      b.append(Var.byId(this.ids[i]).pp());
+    } else {
+      b.append('(').append(c).append(" * ").append(Var.byId(this.ids[i]).pp()).append(')');
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LinearConstraint{" + pp() + '}';
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    LinearConstraint object = (LinearConstraint) o;
+    return this.op == object.op
+      && this.split == object.split
+      && this.lconst == object.lconst
+      && this.rconst == object.rconst
+      && Arrays.equals(this.ids, object.ids)
+      && Arrays.equals(this.coeffs, object.coeffs);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.hash;
+  }
+}
@@ -0,0 +1,123 @@
+package j2i;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+// Live variables of the location graph, and reduction of the domain to live variables.
+//
+// A variable is live at a location if some path from it reads the variable before it is assigned. A transition reads
+// the pre-variables of its guard and assigns the variables whose post-variables occur; the other variables keep their
+// values. The arity of the rules is fixed by the domain, thus a variable that is dead at a location is not removed
+// there. Instead its post-variable is eliminated from the transitions to that location (cf Clause.eliminate), such
+// that the variable is passed on unchanged, which is as good as any value. Variables that are live nowhere, ie in
+// particular at no cut point, are removed from the domain. Eliminations may make further variables dead, so the
+// reduction is repeated until the domain is stable.
+final class Liveness {
+
+  private Liveness() {
+  }
+
+  static Transitions apply(Domain domain, Transitions transitions) {
+    while (!transitions.isEmpty()) {
+      LocationGraph g = transitions.graph();
+      VarIndex index = domain.index();
+      BitSet[] live = live(g, index);
+      transitions = eliminate(domain, index, g, live);
+      BitSet anywhere = new BitSet();
+      for (BitSet l : live) {
+        anywhere.or(l);
+      }
+      boolean removed = false;
+      for (int k = 0; k < index.size(); k++) {
+        if (!anywhere.get(k)) {
+          domain.remove(index.var(k));
+          removed = true;
+        }
+      }
+      if (!removed) {
+        break;
+      }
+    }
+    return transitions;
+  }
+
+  // the positions (cf VarIndex) of the live variables of the domain at the entry of each location (backward, to a
+  // fixpoint)
+  static BitSet[] live(LocationGraph g, VarIndex index) {
+    int n = g.locations();
+    BitSet[] live = new BitSet[n];
+    for (int l = 0; l < n; l++) {
+      live[l] = new BitSet();
+    }
+    Deque<Integer> worklist = new ArrayDeque<>();
+    BitSet queued = new BitSet(n);
+    for (int l = n - 1; l >= 0; l--) {
+      worklist.add(l);
+      queued.set(l);
+    }
+    while (!worklist.isEmpty()) {
+      int l = worklist.poll();
+      queued.clear(l);
+      BitSet in = new BitSet();
+      for (int i = 0; i < g.outDegree(l); i++) {
+        int e = g.outEdge(l, i);
+        transfer(g.transition(e), index, live[g.target(e)], in);
+      }
+      if (in.equals(live[l])) {
+        continue;
+      }
+      live[l] = in;
+      for (int i = 0; i < g.inDegree(l); i++) {
+        int w = g.source(g.inEdge(l, i));
+        if (!queued.get(w)) {
+          queued.set(w);
+          worklist.add(w);
+        }
+      }
+    }
+    return live;
+  }
+
+  // adds the variables that are live before the transition, given the live variables after it
+  private static void transfer(Transition t, VarIndex index, BitSet out, BitSet in) {
+    if (t.getGuard().isEmpty()) {
+      in.or(out);
+      return;
+    }
+    for (Clause c : t.getGuard()) {
+      int[] vars = c.variables();
+      for (int id : vars) {
+        int k = index.position(id);
+        if (k >= 0) {
+          in.set(k);
+        }
+      }
+      for (int k = out.nextSetBit(0); k >= 0; k = out.nextSetBit(k + 1)) {
+        if (!Var.contains(vars, index.id(k) | 1)) {
+          in.set(k);
+        }
+      }
+    }
+  }
+
+  // eliminates the post-variables of variables that are dead at the target of their transition, and the variables
+  // that are not in the domain
+  private static Transitions eliminate(Domain domain, VarIndex index, LocationGraph g, BitSet[] live) {
+    Transitions result = new Transitions();
+    for (int e = 0; e < g.edges(); e++) {
+      Transition t = g.transition(e);
+      BitSet out = live[g.target(e)];
+      Predicate<Var> local = v -> !domain.hasElem(Var.newPreVar(v))
+          || v.isPostVar() && !out.get(index.position(v.id & ~1));
+      Formula guard = Formula.empty();
+      for (Clause clause : t.getGuard()) {
+        Clause c = clause.copy();
+        c.eliminate(local);
+        c.simplify();
+        guard.dnf.add(c);
+      }
+      result.add(new Transition(t.getFrom(), guard, t.getLower(), t.getUpper(), t.getTo()));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,237 @@
+package j2i;
+
+import java.util.*;
+
+// An int-indexed view of the transitions of a method.
+//
+// Locations are numbered 0..n-1 in the order of their first occurrence, ie location 0 is the start location. Edge i is
+// the i-th transition. Successors and predecessors are stored in compressed sparse row (CSR) form: the outgoing edges
+// of location l are succEdges[succStart[l] .. succStart[l+1]), and analogously for incoming edges. The graph is built
+// once (in linear time) and not modified.
+final class LocationGraph {
+
+  private final Map<Label, Integer> ids;
+  private final Label[] labels;
+  private final Transition[] transitions;
+  private final int[] source;
+  private final int[] target;
+  private final int[] succStart;
+  private final int[] succEdges;
+  private final int[] predStart;
+  private final int[] predEdges;
+
+  LocationGraph(Transitions ts) {
+    Map<Label, Integer> ids = new HashMap<>();
+    this.ids = ids;
+    List<Label> labels = new ArrayList<>();
+    List<Transition> transitions = new ArrayList<>();
+    for (Transition t : ts) {
+      transitions.add(t);
+    }
+    int m = transitions.size();
+    this.transitions = transitions.toArray(new Transition[m]);
+    this.source = new int[m];
+    this.target = new int[m];
+    for (int e = 0; e < m; e++) {
+      this.source[e] = id(ids, labels, this.transitions[e].getFrom());
+      this.target[e] = id(ids, labels, this.transitions[e].getTo());
+    }
+    this.labels = labels.toArray(new Label[labels.size()]);
+    int n = this.labels.length;
+    this.succStart = new int[n + 1];
+    this.succEdges = new int[m];
+    this.predStart = new int[n + 1];
+    this.predEdges = new int[m];
+    index(this.source, this.succStart, this.succEdges);
+    index(this.target, this.predStart, this.predEdges);
+  }
+
+  private static int id(Map<Label, Integer> ids, List<Label> labels, Label label) {
+    Integer id = ids.get(label);
+    if (id == null) {
+      id = labels.size();
+      ids.put(label, id);
+      labels.add(label);
+    }
+    return id;
+  }
+
+  // counting sort of the edges by their endpoint
+  private static void index(int[] endpoint, int[] start, int[] edges) {
+    for (int l : endpoint) {
+      start[l + 1]++;
+    }
+    for (int l = 0; l + 1 < start.length; l++) {
+      start[l + 1] += start[l];
+    }
+    int[] next = Arrays.copyOf(start, start.length - 1);
+    for (int e = 0; e < endpoint.length; e++) {
+      edges[next[endpoint[e]]++] = e;
+    }
+  }
+
+  int locations() {
+    return this.labels.length;
+  }
+
+  int edges() {
+    return this.transitions.length;
+  }
+
+  // the location of a label, or -1
+  int location(Label label) {
+    Integer l = this.ids.get(label);
+    return l != null ? l : -1;
+  }
+
+  Label label(int l) {
+    return this.labels[l];
+  }
+
+  Transition transition(int e) {
+    return this.transitions[e];
+  }
+
+  int source(int e) {
+    return this.source[e];
+  }
+
+  int target(int e) {
+    return this.target[e];
+  }
+
+  int outDegree(int l) {
+    return this.succStart[l + 1] - this.succStart[l];
+  }
+
+  int inDegree(int l) {
+    return this.predStart[l + 1] - this.predStart[l];
+  }
+
+  // the i-th outgoing edge of l
+  int outEdge(int l, int i) {
+    return this.succEdges[this.succStart[l] + i];
+  }
+
+  // the i-th incoming edge of l
+  int inEdge(int l, int i) {
+    return this.predEdges[this.predStart[l] + i];
+  }
+
+  // Strongly connected components (Tarjan, iterative). Returns the component of each location; components are
+  // numbered in reverse topological order, ie edges lead from higher to lower or equal components.
+  int[] sccs() {
+    int n = locations();
+    int[] component = new int[n];
+    int[] index = new int[n];
+    int[] low = new int[n];
+    int[] stack = new int[n];
+    int[] callStack = new int[n];
+    int[] edgePos = new int[n];
+    boolean[] onStack = new boolean[n];
+    Arrays.fill(index, -1);
+    int counter = 0;
+    int sp = 0;
+    int components = 0;
+    for (int root = 0; root < n; root++) {
+      if (index[root] >= 0) {
+        continue;
+      }
+      int csp = 0;
+      callStack[csp++] = root;
+      index[root] = low[root] = counter++;
+      stack[sp++] = root;
+      onStack[root] = true;
+      while (csp > 0) {
+        int l = callStack[csp - 1];
+        if (edgePos[l] < outDegree(l)) {
+          int w = target(outEdge(l, edgePos[l]++));
+          if (index[w] < 0) {
+            index[w] = low[w] = counter++;
+            stack[sp++] = w;
+            onStack[w] = true;
+            callStack[csp++] = w;
+          } else if (onStack[w]) {
+            low[l] = Math.min(low[l], index[w]);
+          }
+        } else {
+          csp--;
+          if (csp > 0) {
+            int parent = callStack[csp - 1];
+            low[parent] = Math.min(low[parent], low[l]);
+          }
+          if (low[l] == index[l]) {
+            int w;
+            do {
+              w = stack[--sp];
+              onStack[w] = false;
+              component[w] = components;
+            } while (w != l);
+            components++;
+          }
+        }
+      }
+    }
+    return component;
+  }
+
+  // A location is cyclic if it lies on a cycle, ie its component has more than one location or it has a self-loop.
+  BitSet cyclicLocations() {
+    int[] component = sccs();
+    int[] size = new int[locations()];
+    for (int c : component) {
+      size[c]++;
+    }
+    BitSet cyclic = new BitSet(locations());
+    for (int e = 0; e < edges(); e++) {
+      int l = source(e);
+      if (component[l] == component[target(e)] && (size[component[l]] > 1 || l == target(e))) {
+        cyclic.set(l);
+      }
+    }
+    return cyclic;
+  }
+
+  boolean isAcyclic() {
+    return cyclicLocations().isEmpty();
+  }
+
+  // Cut points: the targets of the back edges of a depth-first search from the start location (and then from all
+  // locations not yet visited). Every cycle contains a back edge, so removing the cut points breaks all cycles.
+  BitSet cutPoints() {
+    int n = locations();
+    BitSet cut = new BitSet(n);
+    byte[] state = new byte[n];  // 0 unvisited, 1 on the stack, 2 done
+    int[] callStack = new int[n];
+    int[] edgePos = new int[n];
+    for (int root = 0; root < n; root++) {
+      if (state[root] != 0) {
+        continue;
+      }
+      int csp = 0;
+      callStack[csp++] = root;
+      state[root] = 1;
+      while (csp > 0) {
+        int l = callStack[csp - 1];
+        if (edgePos[l] < outDegree(l)) {
+          int w = target(outEdge(l, edgePos[l]++));
+          if (state[w] == 0) {
+            state[w] = 1;
+            callStack[csp++] = w;
+          } else if (state[w] == 1) {
+            cut.set(w);
+          }
+        } else {
+          state[l] = 2;
+          csp--;
+        }
+      }
+    }
+    return cut;
+  }
+
+  @Override
+  public String toString() {
+    return "LocationGraph{" + "locations=" + locations() + ", edges=" + edges() + '}';
+  }
+}
@@ -0,0 +1,37 @@
+package j2i;
+
+// Statistics of the translation of a single method body.
+public final class MethodStats {
+
+  private int pruned;
+  private long solverNanos;
+
+  // clauses that were found infeasible on composition (cf Feasibility) or wrt the bounds of variables (cf Intervals)
+  public int pruned() {
+    return this.pruned;
+  }
+
+  void pruned(int n) {
+    this.pruned += n;
+  }
+
+  // wall-clock time spent on solving the problem of the method, including cache lookups; 0 if it was answered without
+  // solver or by an equivalent problem
+  public long solverMillis() {
+    return this.solverNanos / 1000000;
+  }
+
+  void solver(long nanos) {
+    this.solverNanos += nanos;
+  }
+
+  public void add(MethodStats other) {
+    this.pruned += other.pruned;
+    this.solverNanos += other.solverNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "pruned clauses: " + this.pruned + ", solver time: " + solverMillis() + " ms";
+  }
+}
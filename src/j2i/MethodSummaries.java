@@ -3,19 +3,23 @@ package j2i;
 import static j2i.Constraint.*;
 import static j2i.Formula.*;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.*;
 import org.json.simple.*;
 import org.json.simple.parser.*;
 
 final class Complexity {
 
-  Optional<AExpr> upperTime;
-  Optional<AExpr> lowerTime;
-  Optional<AExpr> upperSpace;
-  Optional<AExpr> lowerSpace;
+  final Optional<AExpr> upperTime;
+  final Optional<AExpr> lowerTime;
+  final Optional<AExpr> upperSpace;
+  final Optional<AExpr> lowerSpace;
 
   Complexity() {
     this.upperTime = Optional.empty();
@@ -48,9 +52,9 @@ final class Complexity {
 
 final class Declaration implements Comparable<Declaration> {
 
-  String className;
-  String methodName;
-  String descriptor;
+  final String className;
+  final String methodName;
+  final String descriptor;
 
   public Declaration(String className, String methodName, String descriptor) {
     this.className = className;
@@ -100,16 +104,28 @@ final class Declaration implements Comparable<Declaration> {
 
 public class MethodSummaries {
 
-  TreeMap<Declaration, MethodSummary> summaries;
+  // Summaries are loaded once per file and shared by all Grumpy instances of a run. An entry is reloaded only if the
+  // timestamp (or size) of the file changes and the content hash differs.
+  private static final ConcurrentMap<Path, SharedEntry> registry = new ConcurrentHashMap<>();
+
+  private final NavigableMap<Declaration, MethodSummary> summaries;
+
+  private MethodSummaries(TreeMap<Declaration, MethodSummary> summaries) {
+    this.summaries = Collections.unmodifiableNavigableMap(summaries);
+  }
+
+  public static MethodSummaries shared(String filePath) {
+    Path path = Paths.get(filePath).toAbsolutePath().normalize();
+    SharedEntry entry = registry.get(path);
+    if (entry != null && entry.isUpToDate()) {
+      return entry.summaries;
+    }
+    return registry.compute(path, (p, e) -> SharedEntry.refresh(p, e)).summaries;
+  }
 
   public static MethodSummaries fromFile(String filePath) {
-    JSONParser parser = new JSONParser();
     try {
-      Object obj = parser.parse(new FileReader(filePath));
-      JSONObject jsonObject = (JSONObject) obj;
-      return MethodSummaries.fromJSON(jsonObject);
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
+      return fromBytes(Files.readAllBytes(Paths.get(filePath)));
     } catch (IOException e) {
       e.printStackTrace();
     } catch (ParseException e) {
@@ -119,6 +135,12 @@ public class MethodSummaries {
     throw new RuntimeException("could not parse method summaries");
   }
 
+  private static MethodSummaries fromBytes(byte[] content) throws ParseException {
+    JSONParser parser = new JSONParser();
+    Object obj = parser.parse(new String(content, StandardCharsets.UTF_8));
+    return MethodSummaries.fromJSON((JSONObject) obj);
+  }
+
   public static MethodSummaries fromJSON(JSONObject jsonObject) {
     TreeMap<Declaration, MethodSummary> summaries = new TreeMap<>();
     JSONArray _clazzes = (JSONArray) jsonObject.get("summaries");
@@ -135,9 +157,7 @@ public class MethodSummaries {
         summaries.put(key, value);
       }
     }
-    MethodSummaries ms = new MethodSummaries();
-    ms.summaries = summaries;
-    return ms;
+    return new MethodSummaries(summaries);
   }
 
   Optional<MethodSummary> get(Declaration decl) {
@@ -163,21 +183,67 @@ public class MethodSummaries {
   public String toString() {
     return "MethodSummaries{" + "summaries=" + summaries + "}";
   }
+
+  // A loaded summary file together with the stamp (timestamp, size) and the content hash it was loaded from.
+  private static final class SharedEntry {
+
+    final Path path;
+    final FileTime modified;
+    final long size;
+    final byte[] hash;
+    final MethodSummaries summaries;
+
+    SharedEntry(Path path, FileTime modified, long size, byte[] hash, MethodSummaries summaries) {
+      this.path = path;
+      this.modified = modified;
+      this.size = size;
+      this.hash = hash;
+      this.summaries = summaries;
+    }
+
+    boolean isUpToDate() {
+      try {
+        return modified.equals(Files.getLastModifiedTime(path)) && size == Files.size(path);
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    static SharedEntry refresh(Path path, SharedEntry old) {
+      if (old != null && old.isUpToDate()) {
+        return old;
+      }
+      try {
+        FileTime modified = Files.getLastModifiedTime(path);
+        byte[] content = Files.readAllBytes(path);
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+        MethodSummaries summaries = old != null && Arrays.equals(old.hash, hash)
+            ? old.summaries
+            : fromBytes(content);
+        return new SharedEntry(path, modified, content.length, hash, summaries);
+      } catch (IOException e) {
+        e.printStackTrace();
+      } catch (ParseException e) {
+        e.printStackTrace();
+      } catch (NoSuchAlgorithmException e) {
+        e.printStackTrace();
+      }
+      throw new RuntimeException("could not parse method summaries: " + path);
+    }
+  }
 }
 
 
+// Summaries are shared between method bodies (and threads), hence they are immutable.
 class MethodSummary {
 
-  String name;
-  String descriptor;
-  boolean isStatic;
-  Complexity complexity;
-  Map<String, AExpr> lowerSize;
-  Map<String, AExpr> upperSize;
-  List<String> modifies;
-
-  private MethodSummary() {
-  }
+  final String name;
+  final String descriptor;
+  final boolean isStatic;
+  final Complexity complexity;
+  final Map<String, AExpr> lowerSize;
+  final Map<String, AExpr> upperSize;
+  final List<String> modifies;
 
   MethodSummary(String name, String descriptor, boolean isStatic, Complexity complexity,
       Map<String, AExpr> lowerSize, Map<String, AExpr> upperSize, List<String> modifies) {
@@ -185,9 +251,9 @@ class MethodSummary {
     this.descriptor = descriptor;
     this.isStatic = isStatic;
     this.complexity = complexity;
-    this.lowerSize = lowerSize;
-    this.upperSize = upperSize;
-    this.modifies = modifies;
+    this.lowerSize = Collections.unmodifiableMap(lowerSize);
+    this.upperSize = Collections.unmodifiableMap(upperSize);
+    this.modifies = Collections.unmodifiableList(modifies);
   }
 
   public static MethodSummary fromJSON(JSONObject jsonObject) {
@@ -201,8 +267,8 @@ class MethodSummary {
     JSONObject _complexity = (JSONObject) jsonObject.get("complexity");
     if (_complexity != null) {
       complexity = new Complexity
-          ((String) _complexity.get("lowerTime")
-              , (String) _complexity.get("upperTime")
+          ((String) _complexity.get("upperTime")
+              , (String) _complexity.get("lowerTime")
               , (String) _complexity.get("upperSpace")
               , (String) _complexity.get("lowerSpace"));
     } else {
@@ -247,22 +313,27 @@ class MethodSummary {
 
   }
 
+  private static final MethodSummary defaultSummary = new MethodSummary
+      ("default"
+          , "?"
+          , false
+          , new Complexity()
+          , new HashMap<>()
+          , new HashMap<>()
+          , new ArrayList<>());
+
   public static MethodSummary defaultSummary() {
-    MethodSummary m = new MethodSummary();
-    m.name = "default";
-    m.descriptor = "?";
-    m.isStatic = false;
-    m.complexity = new Complexity();
-    m.lowerSize = new HashMap<>();
-    m.upperSize = new HashMap<>();
-    m.modifies = new ArrayList<>();
-    return m;
+    return defaultSummary;
   }
 
   public AExpr getUpperTimeWithDefault() {
     return this.complexity.upperTime.orElse(Val.one());
   }
 
+  public boolean hasConstantUpperTime() {
+    return this.getUpperTimeWithDefault().isConstant();
+  }
+
   public AExpr getLowerTimeWithDefault() {
     return this.complexity.lowerTime.orElse(Val.one());
   }
@@ -272,13 +343,13 @@ class MethodSummary {
 
     Formula fm = Formula.empty();
     for (Map.Entry<String, AExpr> entry : this.lowerSize.entrySet()) {
-      fm = fm.and(ge(new Var(entry.getKey()), entry.getValue()));
+      fm = fm.and(ge(Var.of(entry.getKey()), entry.getValue()));
     }
     for (Map.Entry<String, AExpr> entry : this.upperSize.entrySet()) {
-      fm = fm.and(le(new Var(entry.getKey()), entry.getValue()));
+      fm = fm.and(le(Var.of(entry.getKey()), entry.getValue()));
     }
     for (String entry : this.modifies) {
-      fm = fm.and(eq(new Var(entry, true), new Var("imm_" + ++vid)));
+      fm = fm.and(eq(Var.of(entry, true), Var.of("imm_" + ++vid)));
     }
     return fm;
   }
@@ -0,0 +1,210 @@
+package j2i;
+
+import java.util.*;
+
+// Polynomials in sparse normal form, ie a sorted map from monomials to non-zero coefficients.
+//
+// Used to normalise arithmetic expressions (cf AExpr.normalize): constants are folded, equal monomials are collected
+// and cancelled. Coefficients are longs; on overflow an ArithmeticException is thrown and the expression is kept as is.
+final class Poly {
+
+  private final TreeMap<Monomial, Long> terms;
+
+  private Poly(TreeMap<Monomial, Long> terms) {
+    this.terms = terms;
+  }
+
+  static Poly constant(long c) {
+    TreeMap<Monomial, Long> terms = new TreeMap<>();
+    if (c != 0) {
+      terms.put(Monomial.ONE, c);
+    }
+    return new Poly(terms);
+  }
+
+  static Poly var(Var v) {
+    TreeMap<Monomial, Long> terms = new TreeMap<>();
+    terms.put(new Monomial(Collections.singletonList(v)), 1L);
+    return new Poly(terms);
+  }
+
+  // e is expected to be in normal form; its polynomial is small
+  static Poly of(AExpr e) {
+    if (e instanceof Val) {
+      return constant(((Val) e).val);
+    }
+    if (e instanceof Var) {
+      return var((Var) e);
+    }
+    if (e instanceof Neg) {
+      return of(((Neg) e).neg).negate();
+    }
+    BinExpr b = (BinExpr) e;
+    return apply(b, of(b.lhs), of(b.rhs));
+  }
+
+  static Poly apply(BinExpr b, Poly lhs, Poly rhs) {
+    if (b instanceof Add) {
+      return lhs.plus(rhs);
+    }
+    if (b instanceof Sub) {
+      return lhs.plus(rhs.negate());
+    }
+    return lhs.times(rhs);
+  }
+
+  // all monomials have at most degree one
+  boolean isLinear() {
+    for (Monomial m : this.terms.keySet()) {
+      if (m.degree() > 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the terms in monomial order, ie the linear terms ordered by variable and the constant last
+  Set<Map.Entry<Monomial, Long>> terms() {
+    return this.terms.entrySet();
+  }
+
+  Poly plus(Poly other) {
+    TreeMap<Monomial, Long> terms = new TreeMap<>(this.terms);
+    for (Map.Entry<Monomial, Long> t : other.terms.entrySet()) {
+      Long c = terms.get(t.getKey());
+      long sum = c == null ? t.getValue() : Math.addExact(c, t.getValue());
+      if (sum == 0) {
+        terms.remove(t.getKey());
+      } else {
+        terms.put(t.getKey(), sum);
+      }
+    }
+    return new Poly(terms);
+  }
+
+  Poly negate() {
+    TreeMap<Monomial, Long> terms = new TreeMap<>();
+    for (Map.Entry<Monomial, Long> t : this.terms.entrySet()) {
+      terms.put(t.getKey(), Math.negateExact(t.getValue()));
+    }
+    return new Poly(terms);
+  }
+
+  Poly times(Poly other) {
+    Poly result = constant(0);
+    for (Map.Entry<Monomial, Long> s : this.terms.entrySet()) {
+      TreeMap<Monomial, Long> terms = new TreeMap<>();
+      for (Map.Entry<Monomial, Long> t : other.terms.entrySet()) {
+        terms.put(s.getKey().times(t.getKey()), Math.multiplyExact(s.getValue(), t.getValue()));
+      }
+      result = result.plus(new Poly(terms));
+    }
+    return result;
+  }
+
+  // Builds the canonical expression: terms in monomial order, constant last, eg ((x * y) + (2 * x)) - 1.
+  AExpr toAExpr() {
+    AExpr e = null;
+    for (Map.Entry<Monomial, Long> t : this.terms.entrySet()) {
+      long c = t.getValue();
+      if (e == null) {
+        e = c < 0 && !t.getKey().isOne()
+          ? Neg.of(term(t.getKey(), Math.negateExact(c)))
+          : term(t.getKey(), c);
+      } else {
+        e = c < 0
+          ? Sub.of(e, term(t.getKey(), Math.negateExact(c)))
+          : Add.of(e, term(t.getKey(), c));
+      }
+    }
+    return e == null ? Val.zero() : e;
+  }
+
+  private static AExpr term(Monomial m, long c) {
+    if (m.isOne()) {
+      return Val.of(c);
+    }
+    AExpr e = m.toAExpr();
+    return c == 1 ? e : Mul.of(Val.of(c), e);
+  }
+
+  @Override
+  public String toString() {
+    return "Poly{" + "terms=" + terms + '}';
+  }
+}
+
+// A product of variables, eg x*x*y, represented by the sorted list of its factors. Monomials are ordered by degree
+// (descending) and then lexicographically by their variables.
+final class Monomial implements Comparable<Monomial> {
+
+  static final Monomial ONE = new Monomial(Collections.<Var>emptyList());
+
+  static final Comparator<Var> order = Comparator
+    .comparing((Var v) -> v.symb)
+    .thenComparing(v -> v.post);
+
+  private final List<Var> factors;
+
+  Monomial(List<Var> factors) {
+    this.factors = factors;
+  }
+
+  boolean isOne() {
+    return this.factors.isEmpty();
+  }
+
+  int degree() {
+    return this.factors.size();
+  }
+
+  // the variable of a monomial of degree one
+  Var var() {
+    return this.factors.get(0);
+  }
+
+  Monomial times(Monomial other) {
+    List<Var> factors = new ArrayList<>(this.factors.size() + other.factors.size());
+    factors.addAll(this.factors);
+    factors.addAll(other.factors);
+    factors.sort(order);
+    return new Monomial(factors);
+  }
+
+  AExpr toAExpr() {
+    AExpr e = this.factors.get(0);
+    for (int i = 1; i < this.factors.size(); i++) {
+      e = Mul.of(e, this.factors.get(i));
+    }
+    return e;
+  }
+
+  @Override
+  public int compareTo(Monomial other) {
+    if (this.factors.size() != other.factors.size()) {
+      return Integer.compare(other.factors.size(), this.factors.size());
+    }
+    for (int i = 0; i < this.factors.size(); i++) {
+      int c = order.compare(this.factors.get(i), other.factors.get(i));
+      if (c != 0) {
+        return c;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || o instanceof Monomial && this.factors.equals(((Monomial) o).factors);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.factors.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "Monomial{" + "factors=" + factors + '}';
+  }
+}
@@ -0,0 +1,244 @@
+package j2i;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+// Copy and constant propagation over the location graph, and removal of dead variables.
+//
+// Facts are equations x = c and x = y over the (pre-)variables of the domain. The facts of a location are those that
+// hold after every incoming transition (a must-analysis; the start location has no facts): a transition establishes
+// the equations x' = c and x' = y' of its guard, and keeps the facts over variables it does not modify. Reads of
+// variables with known values are replaced by the constant or by the first variable of the domain that is equal.
+// Afterwards variables that are never read are removed from the domain; their post-variables, as the fresh and
+// intermediate variables of composition, are then local to their clause and eliminated where possible (cf
+// Clause.eliminate).
+final class Propagation {
+
+  private Propagation() {
+  }
+
+  // clauses that become infeasible are dropped and counted in stats
+  static Transitions apply(Domain domain, Transitions transitions, MethodStats stats) {
+    if (transitions.isEmpty()) {
+      return transitions;
+    }
+    LocationGraph g = transitions.graph();
+    List<Set<Constraint>> facts = facts(domain, g);
+    Map<Var, Integer> order = new HashMap<>();
+    for (Var v : domain) {
+      order.put(v, order.size());
+    }
+
+    List<Transition> propagated = new ArrayList<>();
+    // the positions of the variables of the domain that are read, cf VarIndex
+    VarIndex index = domain.index();
+    BitSet read = new BitSet();
+    for (int e = 0; e < g.edges(); e++) {
+      Transition t = g.transition(e);
+      Map<Var, AExpr> smap = substitution(facts.get(g.source(e)), order);
+      if (smap.isEmpty()) {
+        propagated.add(t);
+        for (Clause c : t.getGuard()) {
+          read(c, index, read);
+        }
+        continue;
+      }
+      Formula guard = Formula.empty();
+      for (Clause clause : t.getGuard()) {
+        Clause c = clause.copy();
+        c.substitute(smap);
+        c.simplify();
+        if (Feasibility.isFeasible(c)) {
+          guard.dnf.add(c);
+          read(c, index, read);
+        }
+      }
+      stats.pruned(t.getGuard().size() - guard.size());
+      if (guard.isEmpty() && !t.getGuard().isEmpty()) {
+        continue;
+      }
+      propagated.add(new Transition(t.getFrom(), guard, t.getLower(), t.getUpper(), t.getTo()));
+    }
+
+    for (int k = 0; k < index.size(); k++) {
+      if (!read.get(k)) {
+        domain.remove(index.var(k));
+      }
+    }
+
+    Predicate<Var> local = v -> !domain.hasElem(Var.newPreVar(v));
+    Transitions result = new Transitions();
+    for (Transition t : propagated) {
+      Formula guard = Formula.empty();
+      for (Clause clause : t.getGuard()) {
+        Clause c = clause.copy();
+        c.eliminate(local);
+        c.simplify();
+        guard.dnf.add(c);
+      }
+      result.add(new Transition(t.getFrom(), guard, t.getLower(), t.getUpper(), t.getTo()));
+    }
+    return result;
+  }
+
+  private static void read(Clause clause, VarIndex index, BitSet read) {
+    for (int id : clause.variables()) {
+      int k = index.position(id);
+      if (k >= 0) {
+        read.set(k);
+      }
+    }
+  }
+
+  // the facts at the entry of each location; unreachable locations have no facts
+  private static List<Set<Constraint>> facts(Domain domain, LocationGraph g) {
+    int n = g.locations();
+    List<Set<Constraint>> facts = new ArrayList<>(Collections.<Set<Constraint>>nCopies(n, null));
+    facts.set(0, Collections.<Constraint>emptySet());
+    Deque<Integer> worklist = new ArrayDeque<>();
+    worklist.add(0);
+    BitSet queued = new BitSet(n);
+    queued.set(0);
+    while (!worklist.isEmpty()) {
+      int l = worklist.poll();
+      queued.clear(l);
+      for (int i = 0; i < g.outDegree(l); i++) {
+        int e = g.outEdge(l, i);
+        int w = g.target(e);
+        if (w == 0) {
+          continue;
+        }
+        Set<Constraint> out = facts(domain, g.transition(e), facts.get(l));
+        Set<Constraint> old = facts.get(w);
+        if (old == null) {
+          facts.set(w, out);
+        } else if (!old.retainAll(out)) {
+          continue;
+        }
+        if (!queued.get(w)) {
+          queued.set(w);
+          worklist.add(w);
+        }
+      }
+    }
+    for (int l = 0; l < n; l++) {
+      if (facts.get(l) == null) {
+        facts.set(l, Collections.<Constraint>emptySet());
+      }
+    }
+    return facts;
+  }
+
+  // the facts after a transition (all of its clauses)
+  private static Set<Constraint> facts(Domain domain, Transition t, Set<Constraint> in) {
+    if (t.getGuard().isEmpty()) {
+      return new HashSet<>(in);
+    }
+    Set<Constraint> out = null;
+    for (Clause clause : t.getGuard()) {
+      Set<Constraint> facts = facts(domain, clause, in);
+      if (out == null) {
+        out = facts;
+      } else {
+        out.retainAll(facts);
+      }
+    }
+    return out;
+  }
+
+  private static Set<Constraint> facts(Domain domain, Clause clause, Set<Constraint> in) {
+    int[] vars = clause.variables();
+    Set<Constraint> out = new HashSet<>();
+    for (Constraint f : in) {
+      boolean kept = true;
+      for (int i : f.variables()) {
+        kept &= !Var.contains(vars, i | 1);
+      }
+      if (kept) {
+        out.add(f);
+      }
+    }
+    for (Constraint c : clause) {
+      if (c.op != Constraint.EQ || !(c instanceof LinearConstraint)) {
+        continue;
+      }
+      LinearConstraint lc = (LinearConstraint) c;
+      if (lc.terms() == 1 && lc.coeff(0) == 1) {
+        Var x = after(domain, vars, lc.id(0));
+        if (x != null) {
+          out.add(Constraint.eq(x, Val.of(-lc.constant())));
+        }
+      } else if (lc.terms() == 2 && lc.constant() == 0 && lc.coeff(0) == 1 && lc.coeff(1) == -1) {
+        Var x = after(domain, vars, lc.id(0));
+        Var y = after(domain, vars, lc.id(1));
+        if (x != null && y != null) {
+          out.add(Constraint.eq(x, y));
+        }
+      }
+    }
+    return out;
+  }
+
+  // the domain variable whose value after the clause is given by the variable id, if any: x' or an unmodified x
+  private static Var after(Domain domain, int[] vars, int id) {
+    Var x = Var.newPreVar(Var.byId(id));
+    if (!domain.hasElem(x) || !Var.isPostId(id) && Var.contains(vars, id | 1)) {
+      return null;
+    }
+    return x;
+  }
+
+  // maps each variable with a known value to its constant or to the first equal variable of the domain
+  private static Map<Var, AExpr> substitution(Set<Constraint> facts, Map<Var, Integer> order) {
+    Map<Var, AExpr> smap = new HashMap<>();
+    if (facts.isEmpty()) {
+      return smap;
+    }
+    Map<Var, Var> parent = new HashMap<>();
+    Map<Var, Val> constants = new HashMap<>();
+    for (Constraint f : facts) {
+      LinearConstraint lc = (LinearConstraint) f;
+      Var x = Var.byId(lc.id(0));
+      if (lc.terms() == 1) {
+        constants.put(x, Val.of(-lc.constant()));
+      } else {
+        Var y = Var.byId(lc.id(1));
+        Var rx = find(parent, x);
+        Var ry = find(parent, y);
+        if (rx != ry) {
+          if (order.get(rx) < order.get(ry)) {
+            parent.put(ry, rx);
+          } else {
+            parent.put(rx, ry);
+          }
+        }
+      }
+    }
+    Map<Var, Val> classConstants = new HashMap<>();
+    for (Map.Entry<Var, Val> c : constants.entrySet()) {
+      classConstants.put(find(parent, c.getKey()), c.getValue());
+    }
+    Set<Var> vars = new HashSet<>(parent.keySet());
+    vars.addAll(parent.values());
+    vars.addAll(constants.keySet());
+    for (Var x : vars) {
+      Var r = find(parent, x);
+      Val c = classConstants.get(r);
+      if (c != null) {
+        smap.put(x, c);
+      } else if (r != x) {
+        smap.put(x, r);
+      }
+    }
+    return smap;
+  }
+
+  private static Var find(Map<Var, Var> parent, Var x) {
+    Var p = parent.get(x);
+    while (p != null) {
+      x = p;
+      p = parent.get(x);
+    }
+    return x;
+  }
+}
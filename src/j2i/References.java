@@ -0,0 +1,90 @@
+package j2i;
+
+import java.util.*;
+import soot.*;
+import soot.jimple.*;
+
+// The references of a body that are resolved against the Scene: the summaries of its calls and the static fields it
+// reads or writes. Resolving a reference may load classes or add phantom methods and fields, and neither the Scene nor
+// the caches of Soot's references are thread-safe. Thus the references are resolved once, on the thread that runs the
+// Soot transformer, and a Grumpy instance only reads them, cf Grumpy (Concurrency).
+public final class References {
+
+  final MethodSummaries summaries;
+  // the summary of each called method; empty if there is none
+  private final Map<SootMethodRef, Optional<MethodSummary>> calls = new HashMap<>();
+  // the symbol of each static field, cf Grumpy.getSymbol
+  private final Map<SootFieldRef, String> statics = new HashMap<>();
+  // the primitive static fields in order of their first occurrence, cf Domain.addFields
+  private final Set<Var> fields = new LinkedHashSet<>();
+
+  private References(JimpleBody body, MethodSummaries summaries) {
+    this.summaries = summaries;
+    for (Unit unit : body.getUnits()) {
+      for (ValueBox box : unit.getUseAndDefBoxes()) {
+        if (box.getValue() instanceof StaticFieldRef) {
+          StaticFieldRef ref = (StaticFieldRef) box.getValue();
+          SootField field = ref.getField();
+          this.statics.put(ref.getFieldRef(), Grumpy.getSymbol(field));
+          if (Grumpy.isPrimitive(field)) {
+            this.fields.add(Grumpy.var(field));
+          }
+        }
+      }
+      Stmt stmt = (Stmt) unit;
+      if (stmt.containsInvokeExpr() && !(stmt.getInvokeExpr() instanceof DynamicInvokeExpr)) {
+        SootMethodRef ref = stmt.getInvokeExpr().getMethodRef();
+        Optional<MethodSummary> msum = this.calls.computeIfAbsent(ref, r -> Grumpy.resolve(summaries, r));
+        if (msum.isPresent()) {
+          addFields(msum.get());
+        }
+      }
+    }
+  }
+
+  // resolves the references of the body; the summaries are taken from option summaries-file
+  public static References of(JimpleBody body, Map<String, String> opts) {
+    return new References(body, Grumpy.summaries(opts));
+  }
+
+  // the fields that a summary mentions, ie variables named by the symbol of a primitive static field
+  private void addFields(MethodSummary msum) {
+    Set<Var> vars = msum.getEffect().variables();
+    msum.getUpperTimeWithDefault().addVariables(vars, v -> true);
+    msum.getLowerTimeWithDefault().addVariables(vars, v -> true);
+    for (String entry : msum.modifies) {
+      vars.add(Var.of(entry));
+    }
+    for (Var v : vars) {
+      int dot = v.symb.lastIndexOf('.');
+      if (dot > 0 && Scene.v().containsClass(v.symb.substring(0, dot))) {
+        String name = v.symb.substring(dot + 1);
+        for (SootField field : Scene.v().getSootClass(v.symb.substring(0, dot)).getFields()) {
+          if (field.getName().equals(name) && Grumpy.isPrimitive(field)) {
+            this.fields.add(v);
+          }
+        }
+      }
+    }
+  }
+
+  Optional<MethodSummary> summary(SootMethodRef ref) {
+    Optional<MethodSummary> msum = this.calls.get(ref);
+    if (msum == null) {
+      throw new RuntimeException("unresolved method: " + ref);
+    }
+    return msum;
+  }
+
+  String symbol(StaticFieldRef ref) {
+    String symbol = this.statics.get(ref.getFieldRef());
+    if (symbol == null) {
+      throw new RuntimeException("unresolved field: " + ref);
+    }
+    return symbol;
+  }
+
+  Set<Var> fields() {
+    return Collections.unmodifiableSet(this.fields);
+  }
+}
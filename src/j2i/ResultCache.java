@@ -0,0 +1,274 @@
+package j2i;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.*;
+
+// A persistent cache of solver answers.
+//
+// The key of a problem is the SHA-256 hash of its canonical text (cf KoAT.printCanonical) together with the solver
+// options. Each answer is stored in its own file <dir>/<2 hex digits>/<key>. Files are written to a temporary file and
+// then moved in place, so that several threads (or JVMs) may share a cache directory. The modification time of an
+// entry is updated on each hit; when the cache holds more than maxEntries entries the least recently used ones are
+// removed. Only definite answers are stored.
+public final class ResultCache {
+
+  private final Path dir;
+  private final long maxEntries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+  private final AtomicLong storesSinceEviction = new AtomicLong();
+
+  public ResultCache(String dir, long maxEntries) {
+    this.dir = Paths.get(dir).toAbsolutePath();
+    this.maxEntries = Math.max(1, maxEntries);
+    try {
+      Files.createDirectories(this.dir);
+    } catch (IOException e) {
+      throw new UncheckedIOException("could not create cache directory: " + dir, e);
+    }
+  }
+
+  static String key(KoAT problem, String... options) {
+    DigestWriter out = new DigestWriter();
+    try {
+      problem.printCanonical(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    for (String option : options) {
+      out.write('\0');
+      out.write(option);
+    }
+    return out.hex();
+  }
+
+  Optional<Answer> get(String key) {
+    Path entry = path(key);
+    try {
+      List<String> lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+      if (!lines.isEmpty()) {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        this.hits.incrementAndGet();
+        return Optional.of(Answer.of(lines.get(0)));
+      }
+    } catch (NoSuchFileException e) {
+      // miss
+    } catch (IOException e) {
+      // entry has been evicted concurrently or is not readable; treat as miss
+    }
+    this.misses.incrementAndGet();
+    return Optional.empty();
+  }
+
+  void put(String key, Answer answer) {
+    if (!answer.isDefinite()) {
+      return;
+    }
+    Path entry = path(key);
+    try {
+      Files.createDirectories(entry.getParent());
+      Path tmp = Files.createTempFile(entry.getParent(), key, ".tmp");
+      try {
+        Files.write(tmp, Collections.singletonList(answer.pp()), StandardCharsets.UTF_8);
+        Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+      this.stores.incrementAndGet();
+    } catch (IOException e) {
+      e.printStackTrace();
+      return;
+    }
+    if (this.storesSinceEviction.incrementAndGet() >= Math.max(1, this.maxEntries / 10)) {
+      this.storesSinceEviction.set(0);
+      evict();
+    }
+  }
+
+  public long hits() {
+    return this.hits.get();
+  }
+
+  public long misses() {
+    return this.misses.get();
+  }
+
+  public long stores() {
+    return this.stores.get();
+  }
+
+  private Path path(String key) {
+    return this.dir.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  // Removes the least recently used entries until the cache is 10% below its limit. Eviction is skipped if another
+  // JVM is evicting at the moment.
+  private synchronized void evict() {
+    try (FileChannel channel = FileChannel.open(this.dir.resolve(".lock"),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = channel.tryLock()) {
+      if (lock == null) {
+        return;
+      }
+      List<Path> entries;
+      try (Stream<Path> files = Files.walk(this.dir, 2)) {
+        entries = files
+            .filter(p -> p.getParent() != null && !p.getParent().equals(this.dir))
+            .filter(p -> !p.getFileName().toString().endsWith(".tmp"))
+            .collect(Collectors.toList());
+      }
+      long keep = this.maxEntries - this.maxEntries / 10;
+      if (entries.size() <= this.maxEntries) {
+        return;
+      }
+      Map<Path, Long> accessed = new HashMap<>();
+      for (Path entry : entries) {
+        accessed.put(entry, lastModified(entry));
+      }
+      entries.sort(Comparator.comparing(accessed::get));
+      for (Path entry : entries.subList(0, (int) (entries.size() - keep))) {
+        Files.deleteIfExists(entry);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static long lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ResultCache{" + "hits=" + hits + ", misses=" + misses + ", stores=" + stores + '}';
+  }
+}
+
+// Computes the SHA-256 hash of the written text (in UTF-8). Characters are collected in a buffer and encoded in blocks.
+final class DigestWriter extends Writer {
+
+  private static final MessageDigest sha256;
+  private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
+  static {
+    try {
+      sha256 = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private final MessageDigest digest;
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final CharBuffer chars = CharBuffer.allocate(1024);
+  private final ByteBuffer bytes = ByteBuffer.allocate(3 * 1024);
+
+  // the prototype is never updated, cloning it avoids the lookup of the provider
+  DigestWriter() {
+    try {
+      this.digest = (MessageDigest) sha256.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) {
+    while (len > 0) {
+      int n = Math.min(len, this.chars.remaining());
+      this.chars.put(cbuf, off, n);
+      off += n;
+      len -= n;
+      if (!this.chars.hasRemaining()) {
+        this.encode(false);
+      }
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) {
+    while (len > 0) {
+      int n = Math.min(len, this.chars.remaining());
+      this.chars.put(str, off, off + n);
+      off += n;
+      len -= n;
+      if (!this.chars.hasRemaining()) {
+        this.encode(false);
+      }
+    }
+  }
+
+  @Override
+  public void write(String str) {
+    this.write(str, 0, str.length());
+  }
+
+  @Override
+  public void write(int c) {
+    if (!this.chars.hasRemaining()) {
+      this.encode(false);
+    }
+    this.chars.put((char) c);
+  }
+
+  // digests the buffered characters; a trailing high surrogate is kept unless this is the end of the text
+  private void encode(boolean end) {
+    this.chars.flip();
+    CoderResult result;
+    do {
+      result = this.encoder.encode(this.chars, this.bytes, end);
+      this.update();
+    } while (result.isOverflow());
+    if (end) {
+      while (this.encoder.flush(this.bytes).isOverflow()) {
+        this.update();
+      }
+      this.update();
+    }
+    this.chars.compact();
+  }
+
+  private void update() {
+    this.bytes.flip();
+    this.digest.update(this.bytes);
+    this.bytes.clear();
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  // the hash of the whole text; the writer can not be used afterwards
+  String hex() {
+    this.encode(true);
+    byte[] hash = this.digest.digest();
+    char[] hex = new char[2 * hash.length];
+    for (int i = 0; i < hash.length; i++) {
+      hex[2 * i] = hexDigits[(hash[i] >> 4) & 0xf];
+      hex[2 * i + 1] = hexDigits[hash[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
@@ -0,0 +1,148 @@
+package j2i;
+
+import java.util.*;
+
+// Slicing of the transitions wrt termination and runtime: the constraints that the loop conditions and the arguments
+// of calls with non-constant cost depend on.
+//
+// The constraints of a clause are grouped such that constraints sharing a variable outside of the domain (eg an
+// intermediate variable of composition) are in the same group. A group is a condition if it assigns no variable of the
+// domain, ie has no post-variable of the domain. The relevant variables are initially the variables of the conditions
+// of transitions from cyclic locations (which includes the loop exits) and the seeds. A group that assigns a relevant
+// variable is relevant, and so are the variables it reads and assigns; this is iterated to a fixpoint. Conditions of
+// transitions from acyclic locations are kept if they read only relevant variables. The other groups are dropped,
+// thus transitions without relevant groups become skips, which are contracted by compaction.
+// Dropping constraints only adds runs, thus upper bounds remain sound. The values of irrelevant variables are
+// unconstrained or unchanged, but they do not flow into relevant ones.
+final class Slicing {
+
+  private Slicing() {
+  }
+
+  // the constraints of a clause that are connected via variables outside of the domain
+  private static final class Group {
+    final List<Constraint> constraints = new ArrayList<>();
+    // the positions (cf VarIndex) of the variables of the domain that are read and assigned
+    final BitSet reads = new BitSet();
+    final BitSet writes = new BitSet();
+    boolean kept;
+  }
+
+  static Transitions apply(Domain domain, Transitions transitions, Set<Var> seeds) {
+    if (transitions.isEmpty()) {
+      return transitions;
+    }
+    LocationGraph g = transitions.graph();
+    BitSet cyclic = g.cyclicLocations();
+    List<List<List<Group>>> groups = new ArrayList<>();
+    VarIndex index = domain.index();
+    BitSet relevant = new BitSet();
+    for (Var v : seeds) {
+      int k = index.position(Var.newPreVar(v).id);
+      if (k >= 0) {
+        relevant.set(k);
+      }
+    }
+    for (int e = 0; e < g.edges(); e++) {
+      List<List<Group>> clauses = new ArrayList<>();
+      for (Clause clause : g.transition(e).getGuard()) {
+        List<Group> gs = groups(index, clause);
+        for (Group group : gs) {
+          if (group.writes.isEmpty() && cyclic.get(g.source(e))) {
+            group.kept = true;
+            relevant.or(group.reads);
+          }
+        }
+        clauses.add(gs);
+      }
+      groups.add(clauses);
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (List<List<Group>> clauses : groups) {
+        for (List<Group> gs : clauses) {
+          for (Group group : gs) {
+            if (!group.kept && group.writes.intersects(relevant)) {
+              group.kept = true;
+              relevant.or(group.reads);
+              relevant.or(group.writes);
+              changed = true;
+            }
+          }
+        }
+      }
+    }
+
+    Transitions result = new Transitions();
+    for (int e = 0; e < g.edges(); e++) {
+      Transition t = g.transition(e);
+      Formula guard = Formula.empty();
+      for (List<Group> gs : groups.get(e)) {
+        List<Constraint> cs = new ArrayList<>();
+        for (Group group : gs) {
+          BitSet reads = (BitSet) group.reads.clone();
+          reads.andNot(relevant);
+          if (group.kept || group.writes.isEmpty() && reads.isEmpty()) {
+            cs.addAll(group.constraints);
+          }
+        }
+        if (cs.isEmpty()) {
+          // a clause without constraints is true, thus so is the guard
+          guard = Formula.empty();
+          break;
+        }
+        guard.dnf.add(new Clause(cs.toArray(new Constraint[cs.size()])));
+      }
+      result.add(new Transition(t.getFrom(), guard, t.getLower(), t.getUpper(), t.getTo()));
+    }
+    return result;
+  }
+
+  private static List<Group> groups(VarIndex index, Clause clause) {
+    List<Group> groups = new ArrayList<>();
+    // the group of each variable outside of the domain
+    Map<Integer, Group> locals = new HashMap<>();
+    for (Constraint c : clause) {
+      Group group = null;
+      int[] vars = c.variables();
+      for (int i : vars) {
+        Group other = locals.get(i);
+        if (other != null && other != group) {
+          group = group == null ? other : merge(group, other, groups, locals);
+        }
+      }
+      if (group == null) {
+        group = new Group();
+        groups.add(group);
+      }
+      group.constraints.add(c);
+      for (int i : vars) {
+        int k = index.position(i & ~1);
+        if (k < 0) {
+          locals.put(i, group);
+        } else if (Var.isPostId(i)) {
+          group.writes.set(k);
+        } else {
+          group.reads.set(k);
+        }
+      }
+    }
+    return groups;
+  }
+
+  // moves other into group
+  private static Group merge(Group group, Group other, List<Group> groups, Map<Integer, Group> locals) {
+    group.constraints.addAll(other.constraints);
+    group.reads.or(other.reads);
+    group.writes.or(other.writes);
+    groups.remove(other);
+    for (Map.Entry<Integer, Group> l : locals.entrySet()) {
+      if (l.getValue() == other) {
+        l.setValue(group);
+      }
+    }
+    return group;
+  }
+}
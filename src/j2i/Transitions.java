@@ -1,12 +1,11 @@
 package j2i;
 
 import java.util.*;
-import soot.*;
 
 
 final class Transitions implements Iterable<Transition>, PrettyPrint {
 
-  protected List<Transition> transitions = new LinkedList();
+  protected List<Transition> transitions = new ArrayList<>();
 
   Transitions() {
   }
@@ -32,24 +31,26 @@ final class Transitions implements Iterable<Transition>, PrettyPrint {
   }
 
 
-  static Transitions compact(Transitions transitions) {
+  static Transitions compact(Transitions transitions, MethodStats stats) {
     Transitions result = new Transitions();
     if (transitions.isEmpty()) {
       return result;
     }
 
+    LocationGraph g = transitions.graph();
     Iterator<Transition> it = transitions.iterator();
     Transition cur = it.next();
 
     while (it.hasNext()) {
       Transition nxt = it.next();
       Optional<Transition> tmp = Optional.empty();
-      // not optimal we should distinguish
-      if (cur.getTo().isDefined() || nxt.getTo().isDefined() || nxt.getFrom().isDefined()) {
+      // adjacent transitions are merged if they pass through a location without other edges
+      int l = g.location(cur.getTo());
+      if (cur.getTo() != nxt.getFrom() || g.inDegree(l) != 1 || g.outDegree(l) != 1) {
         result.add(cur);
         cur = nxt;
       } else {
-        tmp = Transition.compose(cur, nxt);
+        tmp = Transition.compose(cur, nxt, stats);
         cur = tmp.get();
       }
     }
@@ -67,8 +68,125 @@ final class Transitions implements Iterable<Transition>, PrettyPrint {
     return result;
   }
 
+  // Cut-point chaining: contracts all locations except the start location, cut points (cf LocationGraph.cutPoints)
+  // and locations without successors, ie every path between kept locations becomes a single transition. Removing the
+  // cut points breaks all cycles, so the paths from a kept location through the other locations form a DAG; they are
+  // composed in topological order. If the paths reaching a location have more than budget clauses in total, or a
+  // composition could produce more than budget clauses, the location is kept instead. Transitions of locations that
+  // are not reachable from a kept location are dropped.
+  static Transitions chain(Transitions transitions, int budget, MethodStats stats) {
+    Transitions result = new Transitions();
+    if (transitions.isEmpty()) {
+      return result;
+    }
+    LocationGraph g = transitions.graph();
+    int n = g.locations();
+    BitSet kept = g.cutPoints();
+    kept.set(0);
+    for (int l = 0; l < n; l++) {
+      if (g.outDegree(l) == 0) {
+        kept.set(l);
+      }
+    }
+    Deque<Integer> roots = new ArrayDeque<>();
+    for (int l = kept.nextSetBit(0); l >= 0; l = kept.nextSetBit(l + 1)) {
+      roots.add(l);
+    }
+    List<List<Transition>> pending = new ArrayList<>(n);
+    for (int l = 0; l < n; l++) {
+      pending.add(new ArrayList<>());
+    }
+    while (!roots.isEmpty()) {
+      int root = roots.poll();
+      for (int i = 0; i < g.outDegree(root); i++) {
+        int e = g.outEdge(root, i);
+        if (kept.get(g.target(e))) {
+          result.add(g.transition(e));
+        } else {
+          pending.get(g.target(e)).add(g.transition(e));
+        }
+      }
+      for (int l : region(g, kept, root)) {
+        List<Transition> paths = pending.get(l);
+        pending.set(l, new ArrayList<>());
+        if (exceeds(g, l, paths, budget)) {
+          result.add(paths);
+          kept.set(l);
+          roots.add(l);
+          continue;
+        }
+        for (int i = 0; i < g.outDegree(l); i++) {
+          int e = g.outEdge(l, i);
+          for (Transition t : paths) {
+            Transition c = Transition.compose(t, g.transition(e), stats).get();
+            if (c.getGuard().isUnsat()) {
+              continue;
+            }
+            if (kept.get(g.target(e))) {
+              result.add(c);
+            } else {
+              pending.get(g.target(e)).add(c);
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  // the locations that are reachable from root without passing kept locations, in topological order
+  private static List<Integer> region(LocationGraph g, BitSet kept, int root) {
+    List<Integer> order = new ArrayList<>();
+    BitSet visited = new BitSet(g.locations());
+    Deque<int[]> stack = new ArrayDeque<>();
+    stack.push(new int[] {root, 0});
+    while (!stack.isEmpty()) {
+      int[] top = stack.peek();
+      int l = top[0];
+      if (top[1] < g.outDegree(l)) {
+        int w = g.target(g.outEdge(l, top[1]++));
+        if (!kept.get(w) && !visited.get(w)) {
+          visited.set(w);
+          stack.push(new int[] {w, 0});
+        }
+      } else {
+        stack.pop();
+        if (l != root) {
+          order.add(l);
+        }
+      }
+    }
+    Collections.reverse(order);
+    return order;
+  }
+
+  private static boolean exceeds(LocationGraph g, int l, List<Transition> paths, int budget) {
+    int clauses = 0;
+    int widest = 0;
+    for (Transition t : paths) {
+      clauses += Math.max(1, t.getGuard().size());
+    }
+    for (int i = 0; i < g.outDegree(l); i++) {
+      widest = Math.max(widest, g.transition(g.outEdge(l, i)).getGuard().size());
+    }
+    for (Transition t : paths) {
+      if (t.getGuard().size() * widest > budget) {
+        return true;
+      }
+    }
+    return clauses > budget;
+  }
+
+  private Transitions add(List<Transition> ts) {
+    this.transitions.addAll(ts);
+    return this;
+  }
+
+  // transitions with unsatisfiable guards are dropped
   Transitions add(Transition t) {
-    this.transitions.add(t);
+    if (!t.getGuard().isUnsat()) {
+      this.transitions.add(t);
+    }
     return this;
   }
 
@@ -81,6 +199,16 @@ final class Transitions implements Iterable<Transition>, PrettyPrint {
     return this.transitions.isEmpty();
   }
 
+  // The location graph of the transitions; built anew on each call.
+  LocationGraph graph() {
+    return new LocationGraph(this);
+  }
+
+  // A transition system without cycles has constant runtime; each transition is taken at most once.
+  boolean isAcyclic() {
+    return graph().isAcyclic();
+  }
+
   @Override
   public Iterator<Transition> iterator() {
     return this.transitions.iterator();
@@ -133,15 +261,15 @@ final class Transition implements PrettyPrint {
     this.upper = upper;
   }
 
-  static Optional<Transition> compose(Transition t1, Transition t2) {
+  static Optional<Transition> compose(Transition t1, Transition t2, MethodStats stats) {
     if (t1.to != t2.from) {
       return Optional.empty();
     }
     return Optional.of(new Transition
         (t1.from
-            , Formula.compose(t1.guard, t2.guard)
-            , new Add(t1.lower, t2.lower)
-            , new Add(t1.upper, t2.upper)
+            , Formula.compose(t1.guard, t2.guard, stats)
+            , Add.of(t1.lower, t2.lower).normalize()
+            , Add.of(t1.upper, t2.upper).normalize()
             , t2.to));
   }
 
@@ -157,6 +285,14 @@ final class Transition implements PrettyPrint {
     return guard;
   }
 
+  AExpr getLower() {
+    return lower;
+  }
+
+  AExpr getUpper() {
+    return upper;
+  }
+
   @Override
   public String pp() {
     return "<" + this.from + "," + this.to + "," + this.guard.pp() + ">";
@@ -1,6 +1,8 @@
 package j2i;
 
 
+import java.lang.ref.WeakReference;
+import java.util.*;
 import soot.SootMethod;
 
 
@@ -23,7 +25,7 @@ final class FreshSupply {
   }
 
   Var freshVar() {
-    return new Var(this.fresh());
+    return Var.of(this.fresh());
   }
 
   @Override
@@ -32,6 +34,36 @@ final class FreshSupply {
   }
 }
 
+// Maps equal (immutable) objects to a single canonical instance, cf hash-consing. The canonical instances are only
+// weakly referenced and are dropped once they are no longer in use. The table is split into stripes, such that
+// method bodies translated in parallel rarely wait for each other.
+final class Interner<T> {
+
+  private static final int STRIPES = 32;
+
+  private final List<Map<T, WeakReference<T>>> stripes = new ArrayList<>(STRIPES);
+
+  Interner() {
+    for (int i = 0; i < STRIPES; i++) {
+      this.stripes.add(new WeakHashMap<>());
+    }
+  }
+
+  T intern(T t) {
+    int h = t.hashCode();
+    Map<T, WeakReference<T>> stripe = this.stripes.get((h ^ (h >>> 16)) & (STRIPES - 1));
+    synchronized (stripe) {
+      WeakReference<T> ref = stripe.get(t);
+      T canonical = ref != null ? ref.get() : null;
+      if (canonical == null) {
+        stripe.put(t, new WeakReference<>(t));
+        canonical = t;
+      }
+      return canonical;
+    }
+  }
+}
+
 public final class Util {
 
   // returns signature of a method <Class>:<Method><Descriptor>
@@ -53,7 +85,7 @@ public final class Util {
 }
 
 final class Debug {
-  static boolean doTrace = false;
+  static final boolean doTrace = false;
   static void trace(String s) {
     if(Debug.doTrace){
       System.out.println(s);